@@ -191,6 +191,38 @@ public abstract class FhirModelResolver<BaseType, BaseDateTimeType, TimeType, Si
         return target;
     }
 
+    @Override
+    public boolean hasPath(Object target, String path) {
+        if (path.contains(".") || path.contains("[")) {
+            return ModelResolver.super.hasPath(target, path);
+        }
+
+        if (!(target instanceof IBase)) {
+            return false;
+        }
+
+        if (target instanceof IBaseEnumeration && path.equals("value")) {
+            return true;
+        }
+
+        if (target instanceof IAnyResource && this.getResourceType((ResourceType) target).equals(path)) {
+            return true;
+        }
+
+        // resolveProperty resolves any path on a primitive to its value
+        if (target instanceof IPrimitiveType) {
+            return true;
+        }
+
+        if (!(target instanceof IAnyResource || target instanceof IBaseBackboneElement
+                || target instanceof IBaseElement || target instanceof ICompositeType)) {
+            return false;
+        }
+
+        BaseRuntimeElementCompositeDefinition<?> definition = resolveRuntimeDefinition((IBase) target);
+        return definition.getChildByName(path) != null || resolveChoiceProperty(definition, path) != null;
+    }
+
     @Override
     public Class<?> resolveType(String typeName) {
             // dataTypes
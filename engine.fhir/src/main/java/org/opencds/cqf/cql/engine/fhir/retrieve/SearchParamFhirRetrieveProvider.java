@@ -6,6 +6,7 @@ import java.util.Date;
 import java.util.List;
 
 import org.apache.commons.lang3.tuple.Pair;
+import org.opencds.cqf.cql.engine.debug.FlightRecorderEvent;
 import org.opencds.cqf.cql.engine.fhir.searchparam.SearchParameterMap;
 import org.opencds.cqf.cql.engine.fhir.searchparam.SearchParameterResolver;
 import org.opencds.cqf.cql.engine.retrieve.TerminologyAwareRetrieveProvider;
@@ -171,7 +172,17 @@ public abstract class SearchParamFhirRetrieveProvider extends TerminologyAwareRe
                             "Expand value sets cannot be used without a terminology provider and no terminology provider is set.");
                 }
                 ValueSetInfo valueSetInfo = new ValueSetInfo().withId(valueSet);
+                FlightRecorderEvent.Started event = FlightRecorderEvent.TERMINOLOGY.begin();
                 codes = this.terminologyProvider.expand(valueSetInfo);
+                if (event != null) {
+                    int codeCount = 0;
+                    if (codes != null) {
+                        for (Code code : codes) {
+                            codeCount++;
+                        }
+                    }
+                    event.commit("expand", valueSet, codeCount);
+                }
             } else {
                 return Collections.singletonList(new TokenOrListParam()
                         .addOr(new TokenParam(valueSet).setModifier(TokenParamModifier.IN)));
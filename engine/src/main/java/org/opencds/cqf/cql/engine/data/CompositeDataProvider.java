@@ -31,6 +31,11 @@ public class CompositeDataProvider implements DataProvider {
         return this.modelResolver.resolvePath(target, path);
     }
 
+    @Override
+    public boolean hasPath(Object target, String path) {
+        return this.modelResolver.hasPath(target, path);
+    }
+
     @Override
     public Object getContextPath(String contextType, String targetType) {
         return this.modelResolver.getContextPath(contextType, targetType);
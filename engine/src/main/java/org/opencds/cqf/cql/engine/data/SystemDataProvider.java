@@ -106,6 +106,27 @@ public class SystemDataProvider extends BaseModelResolver implements DataProvide
         }
     }
 
+    @Override
+    public boolean hasPath(Object target, String path) {
+        if (target == null) {
+            return false;
+        }
+
+        if (target instanceof Tuple) {
+            return ((Tuple)target).getElements().containsKey(path);
+        }
+
+        // Same accessor as getReadAccessor, looked up without relying on NoSuchMethodException
+        String accessorMethodName = String.format("%s%s%s", "get", path.substring(0, 1).toUpperCase(), path.substring(1));
+        for (Method method : target.getClass().getMethods()) {
+            if (method.getName().equals(accessorMethodName) && method.getParameterCount() == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     public void setValue(Object target, String path, Object value) {
         if (target == null) {
             return;
@@ -0,0 +1,93 @@
+package org.opencds.cqf.cql.engine.debug;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cqframework.cql.elm.execution.Library;
+import org.opencds.cqf.cql.engine.elm.execution.Executable;
+import org.opencds.cqf.cql.engine.execution.ElmWalker;
+
+/**
+ * The actions of a DebugMap for the nodes of a library, compiled once so that deciding what to do with a node is an
+ * identity lookup rather than a match of its library, node type, local id and locator against every entry. Each
+ * node of the library gets an index, which also identifies it in the coverage bitmap of a DebugLibraryResultEntry.
+ * Nodes whose only action comes from coverage being enabled are marked coverage-only: their evaluation is recorded
+ * as a bit rather than as a result. A table is immutable once compiled and may be shared by evaluations.
+ */
+public class DebugActionTable {
+
+    private final Map<Executable, Integer> indexes;
+    private final Executable[] nodes;
+    private final DebugAction[] actions;
+    private final boolean[] coverageOnly;
+
+    private DebugActionTable(Map<Executable, Integer> indexes, List<Executable> nodes, List<DebugAction> actions, List<Boolean> coverageOnly) {
+        this.indexes = indexes;
+        this.nodes = nodes.toArray(new Executable[0]);
+        this.actions = actions.toArray(new DebugAction[0]);
+        this.coverageOnly = new boolean[coverageOnly.size()];
+        for (int i = 0; i < this.coverageOnly.length; i++) {
+            this.coverageOnly[i] = coverageOnly.get(i);
+        }
+    }
+
+    static DebugActionTable compile(DebugMap debugMap, Library library) {
+        Map<Executable, Integer> indexes = new IdentityHashMap<>();
+        List<Executable> nodes = new ArrayList<>();
+        List<DebugAction> actions = new ArrayList<>();
+        List<Boolean> coverageOnly = new ArrayList<>();
+        ElmWalker.walk(library, node -> {
+            Executable executable = (Executable) node;
+            if (indexes.containsKey(executable)) {
+                return false;
+            }
+
+            DebugAction action = debugMap.getEntryAction(executable, library);
+            boolean isCoverageOnly = false;
+            if (action == DebugAction.NONE) {
+                if (debugMap.getIsLoggingEnabled()) {
+                    action = DebugAction.LOG;
+                }
+                else if (debugMap.getIsCoverageEnabled()) {
+                    action = DebugAction.TRACE;
+                    isCoverageOnly = true;
+                }
+            }
+
+            indexes.put(executable, nodes.size());
+            nodes.add(executable);
+            actions.add(action);
+            coverageOnly.add(isCoverageOnly);
+
+            return true;
+        });
+
+        return new DebugActionTable(indexes, nodes, actions, coverageOnly);
+    }
+
+    /**
+     * @return the index of the node, or -1 if it is not a node of the library
+     */
+    public int indexOf(Executable node) {
+        Integer index = indexes.get(node);
+        return index != null ? index : -1;
+    }
+
+    public Executable getNode(int index) {
+        return nodes[index];
+    }
+
+    public DebugAction getAction(int index) {
+        return actions[index];
+    }
+
+    public boolean isCoverageOnly(int index) {
+        return coverageOnly[index];
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+}
@@ -1,9 +1,12 @@
 package org.opencds.cqf.cql.engine.debug;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.cqframework.cql.elm.execution.Element;
 import org.opencds.cqf.cql.engine.elm.execution.Executable;
@@ -50,4 +53,46 @@ public class DebugLibraryResultEntry {
             logDebugResult(locator, result);
         }
     }
+
+    // The nodes evaluated while only coverage was enabled for them, by index in the library's DebugActionTable
+    private DebugActionTable coverageTable;
+    private BitSet coverage;
+
+    /**
+     * @return the bitmap in which the evaluation of the nodes of the table is recorded
+     */
+    public BitSet getCoverage(DebugActionTable table) {
+        if (coverageTable != table) {
+            // The debug map changed since the last evaluation, so its node indexes no longer apply
+            coverageTable = table;
+            coverage = new BitSet(table.size());
+        }
+
+        return coverage;
+    }
+
+    /**
+     * @return the locators (node id and location) of each node that was evaluated while only coverage was enabled
+     * for it
+     */
+    public Set<DebugLocator> getCoveredLocators() {
+        Set<DebugLocator> locators = new LinkedHashSet<>();
+        if (coverage != null) {
+            for (int index = coverage.nextSetBit(0); index >= 0; index = coverage.nextSetBit(index + 1)) {
+                Executable node = coverageTable.getNode(index);
+                if (node instanceof Element) {
+                    Element element = (Element)node;
+                    if (element.getLocalId() != null) {
+                        locators.add(new DebugLocator(DebugLocator.DebugLocatorType.NODE_ID, element.getLocalId()));
+                    }
+
+                    if (element.getLocator() != null) {
+                        locators.add(new DebugLocator(Location.fromLocator(element.getLocator())));
+                    }
+                }
+            }
+        }
+
+        return locators;
+    }
 }
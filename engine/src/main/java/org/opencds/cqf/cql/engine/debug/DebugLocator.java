@@ -87,7 +87,7 @@ public class DebugLocator {
             return false;
         }
 
-        if (locator != other.locator) {
+        if (!locator.equals(other.locator)) {
             return false;
         }
 
@@ -1,6 +1,7 @@
 package org.opencds.cqf.cql.engine.debug;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 import org.cqframework.cql.elm.execution.Library;
@@ -11,6 +12,8 @@ public class DebugMap {
     private Map<String, DebugLibraryMapEntry> libraryMaps;
     private Map<String, DebugMapEntry> nodeTypeEntries;
     private Map<String, DebugMapEntry> exceptionTypeEntries;
+    // Compiled on first use for each library, and discarded whenever the map changes
+    private final Map<Library, DebugActionTable> actionTables = new IdentityHashMap<>();
 
     public DebugMap() {
         libraryMaps = new HashMap<String, DebugLibraryMapEntry>();
@@ -33,6 +36,26 @@ public class DebugMap {
     }
 
     public DebugAction shouldDebug(Executable node, Library currentLibrary) {
+        DebugAction action = getEntryAction(node, currentLibrary);
+        if (action != DebugAction.NONE) {
+            return action;
+        }
+
+        if (isLoggingEnabled) {
+            return DebugAction.LOG;
+        }
+
+        if (isCoverageEnabled) {
+            return DebugAction.TRACE;
+        }
+
+        return DebugAction.NONE;
+    }
+
+    /**
+     * @return the action of the library or node type entry matching the node, or NONE if there is none
+     */
+    DebugAction getEntryAction(Executable node, Library currentLibrary) {
         DebugLibraryMapEntry libraryMap = libraryMaps.get(currentLibrary.getIdentifier().getId());
         if (libraryMap != null) {
             DebugAction action = libraryMap.shouldDebug(node);
@@ -46,15 +69,28 @@ public class DebugMap {
             return nodeEntry.getAction();
         }
 
-        if (isLoggingEnabled) {
-            return DebugAction.LOG;
-        }
+        return DebugAction.NONE;
+    }
 
-        if (isCoverageEnabled) {
-            return DebugAction.TRACE;
+    /**
+     * @return the actions of this map for the nodes of the library, compiled the first time they are asked for
+     */
+    public DebugActionTable getActionTable(Library library) {
+        synchronized (actionTables) {
+            DebugActionTable table = actionTables.get(library);
+            if (table == null) {
+                table = DebugActionTable.compile(this, library);
+                actionTables.put(library, table);
+            }
+
+            return table;
         }
+    }
 
-        return DebugAction.NONE;
+    private void invalidateActionTables() {
+        synchronized (actionTables) {
+            actionTables.clear();
+        }
     }
 
     private DebugLibraryMapEntry getLibraryMap(String libraryName) {
@@ -80,6 +116,7 @@ public class DebugMap {
     }
 
     public void addDebugEntry(String libraryName, DebugLocator debugLocator, DebugAction action) {
+        invalidateActionTables();
         switch (debugLocator.getLocatorType()) {
             case NODE_TYPE: nodeTypeEntries.put(debugLocator.getLocator(), new DebugMapEntry(debugLocator, action)); break;
             case EXCEPTION_TYPE: exceptionTypeEntries.put(debugLocator.getLocator(), new DebugMapEntry(debugLocator, action)); break;
@@ -96,6 +133,7 @@ public class DebugMap {
     }
 
     public void removeDebugEntry(String libraryName, DebugLocator debugLocator) {
+        invalidateActionTables();
         switch (debugLocator.getLocatorType()) {
             case NODE_TYPE: nodeTypeEntries.remove(debugLocator.getLocator()); break;
             case EXCEPTION_TYPE: exceptionTypeEntries.remove(debugLocator.getLocator()); break;
@@ -123,6 +161,7 @@ public class DebugMap {
     }
     public void setIsLoggingEnabled(boolean isLoggingEnabled) {
         this.isLoggingEnabled = isLoggingEnabled;
+        invalidateActionTables();
     }
 
     private boolean isCoverageEnabled;
@@ -131,5 +170,6 @@ public class DebugMap {
     }
     public void setIsCoverageEnabled(boolean isCoverageEnabled) {
         this.isCoverageEnabled = isCoverageEnabled;
+        invalidateActionTables();
     }
 }
@@ -1,6 +1,7 @@
 package org.opencds.cqf.cql.engine.debug;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,14 +21,7 @@ public class DebugResult {
 
     public void logDebugResult(Executable node, Library currentLibrary, Object result, DebugAction action) {
         try {
-            DebugLibraryResultEntry libraryResultEntry = libraryResults.get(currentLibrary.getIdentifier().getId());
-            if (libraryResultEntry == null) {
-                libraryResultEntry = new DebugLibraryResultEntry(currentLibrary.getIdentifier().getId());
-                libraryResults.put(libraryResultEntry.getLibraryName(), libraryResultEntry);
-            }
-            if (libraryResultEntry != null) {
-                libraryResultEntry.logDebugResultEntry(node, result);
-            }
+            ensureLibraryResultEntry(currentLibrary).logDebugResultEntry(node, result);
 
             if (action == DebugAction.LOG) {
                 DebugUtilities.logDebugResult(node, currentLibrary, result);
@@ -38,6 +32,23 @@ public class DebugResult {
         }
     }
 
+    /**
+     * @return the coverage bitmap of the library for the nodes of the table (see DebugActionTable)
+     */
+    public BitSet getCoverage(Library currentLibrary, DebugActionTable table) {
+        return ensureLibraryResultEntry(currentLibrary).getCoverage(table);
+    }
+
+    private DebugLibraryResultEntry ensureLibraryResultEntry(Library currentLibrary) {
+        DebugLibraryResultEntry libraryResultEntry = libraryResults.get(currentLibrary.getIdentifier().getId());
+        if (libraryResultEntry == null) {
+            libraryResultEntry = new DebugLibraryResultEntry(currentLibrary.getIdentifier().getId());
+            libraryResults.put(libraryResultEntry.getLibraryName(), libraryResultEntry);
+        }
+
+        return libraryResultEntry;
+    }
+
     public void logDebugError(CqlException exception) {
         messages.add(exception);
     }
@@ -0,0 +1,258 @@
+package org.opencds.cqf.cql.engine.debug;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JDK Flight Recorder events emitted by the engine, in the "CQL Engine" category. The events are disabled by
+ * default; enable them in the recording settings, for example with
+ * {@code jfr configure +org.opencds.cqf.cql.engine.Retrieve#enabled=true} or in a .jfc file.
+ *
+ * The engine is compiled for Java 8, which has no jdk.jfr API, so the events are defined at run time through
+ * jdk.jfr.EventFactory. On a JVM without Flight Recorder nothing is registered and begin() always returns null.
+ * Whether an event type is enabled is re-read whenever a recording starts or stops, so while nothing is recording
+ * begin() is a single field read:
+ *
+ * <pre>
+ * FlightRecorderEvent.Started event = FlightRecorderEvent.RETRIEVE.begin();
+ * ...
+ * if (event != null) {
+ *     event.commit(dataType, codeCount, valueSet, resultSize);
+ * }
+ * </pre>
+ */
+public enum FlightRecorderEvent {
+    EVALUATION("Evaluation", "CQL Evaluation", "Evaluation of a set of expressions of a library",
+        field(String.class, "library", "Library"),
+        field(String.class, "contextValue", "Context Value"),
+        field(int.class, "expressionCount", "Expression Count")),
+    EXPRESSION_DEF("ExpressionDef", "CQL Expression Evaluation", "Evaluation of an expression definition",
+        field(String.class, "library", "Library"),
+        field(String.class, "expression", "Expression")),
+    RETRIEVE("Retrieve", "CQL Retrieve", "Retrieve of data from a data provider",
+        field(String.class, "dataType", "Data Type"),
+        field(int.class, "codeCount", "Code Count"),
+        field(String.class, "valueSet", "Value Set"),
+        field(int.class, "resultSize", "Result Size")),
+    TERMINOLOGY("Terminology", "CQL Terminology Call", "Call to a terminology provider",
+        field(String.class, "operation", "Operation"),
+        field(String.class, "valueSet", "Value Set"),
+        field(int.class, "codeCount", "Code Count")),
+    LIBRARY_LOAD("LibraryLoad", "CQL Library Load", "Loading and parsing of a library",
+        field(String.class, "library", "Library"),
+        field(String.class, "version", "Version"));
+
+    private static final String NAME_PREFIX = "org.opencds.cqf.cql.engine.";
+    private static final String CATEGORY = "CQL Engine";
+
+    static {
+        Api.register();
+    }
+
+    private static class Field {
+        private final Class<?> type;
+        private final String name;
+        private final String label;
+
+        Field(Class<?> type, String name, String label) {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+        }
+    }
+
+    private static Field field(Class<?> type, String name, String label) {
+        return new Field(type, name, label);
+    }
+
+    /**
+     * An event that has begun and is committed with the values of its fields, in declaration order. Its duration is
+     * the time between begin() and commit().
+     */
+    public static final class Started {
+        private final Object event;
+
+        private Started(Object event) {
+            this.event = event;
+        }
+
+        public void commit(Object... values) {
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    Api.SET.invoke(event, i, values[i]);
+                }
+                Api.COMMIT.invoke(event);
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                // Losing an event must never fail an evaluation
+            }
+        }
+    }
+
+    private final String name;
+    private final String label;
+    private final String description;
+    private final List<Field> fields;
+    private Object factory;
+    private Object eventType;
+    private volatile boolean isEnabled;
+
+    FlightRecorderEvent(String name, String label, String description, Field... fields) {
+        this.name = NAME_PREFIX + name;
+        this.label = label;
+        this.description = description;
+        this.fields = Arrays.asList(fields);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether this event is enabled in a running recording
+     */
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Begins an event of this type.
+     * @return the event, or null if this event type is not being recorded
+     */
+    public Started begin() {
+        if (!isEnabled) {
+            return null;
+        }
+
+        try {
+            Object event = Api.NEW_EVENT.invoke(factory);
+            Api.BEGIN.invoke(event);
+            return new Started(event);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void updateEnabled() {
+        for (FlightRecorderEvent event : values()) {
+            try {
+                event.isEnabled = event.eventType != null && (Boolean) Api.IS_ENABLED.invoke(event.eventType);
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                event.isEnabled = false;
+            }
+        }
+    }
+
+    // The reflective view of the jdk.jfr API; the events are registered when they are first used
+    private static class Api {
+        private static final Method NEW_EVENT;
+        private static final Method BEGIN;
+        private static final Method COMMIT;
+        private static final Method SET;
+        private static final Method IS_ENABLED;
+
+        static {
+            Method newEvent = null;
+            Method begin = null;
+            Method commit = null;
+            Method set = null;
+            Method isEnabled = null;
+            try {
+                Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                newEvent = Class.forName("jdk.jfr.EventFactory").getMethod("newEvent");
+                begin = eventClass.getMethod("begin");
+                commit = eventClass.getMethod("commit");
+                set = eventClass.getMethod("set", int.class, Object.class);
+                isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            }
+            catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                // No Flight Recorder on this JVM, so every event stays disabled
+                newEvent = null;
+            }
+
+            NEW_EVENT = newEvent;
+            BEGIN = begin;
+            COMMIT = commit;
+            SET = set;
+            IS_ENABLED = isEnabled;
+        }
+
+        static void register() {
+            if (NEW_EVENT == null) {
+                return;
+            }
+
+            try {
+                register(Class.forName("jdk.jfr.EventFactory"));
+                listenForRecordings();
+                updateEnabled();
+            }
+            catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                // Left disabled
+            }
+        }
+
+        private static void register(Class<?> factoryClass) throws ReflectiveOperationException {
+            Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+            Constructor<?> annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+            Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+            Method create = factoryClass.getMethod("create", List.class, List.class);
+            Method getEventType = factoryClass.getMethod("getEventType");
+
+            for (FlightRecorderEvent event : values()) {
+                List<Object> annotations = new ArrayList<>();
+                annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Name"), event.name));
+                annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Label"), event.label));
+                annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Description"), event.description));
+                annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Category"), new String[] { CATEGORY }));
+                annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Enabled"), false));
+                annotations.add(annotationElement.newInstance(annotation("jdk.jfr.StackTrace"), false));
+
+                List<Object> descriptors = new ArrayList<>();
+                for (Field field : event.fields) {
+                    List<Object> fieldAnnotations = Collections.singletonList(
+                        annotationElement.newInstance(annotation("jdk.jfr.Label"), field.label));
+                    descriptors.add(valueDescriptor.newInstance(field.type, field.name, fieldAnnotations));
+                }
+
+                event.factory = create.invoke(null, annotations, descriptors);
+                event.eventType = getEventType.invoke(event.factory);
+            }
+        }
+
+        private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+            return Class.forName(name).asSubclass(Annotation.class);
+        }
+
+        private static void listenForRecordings() throws ReflectiveOperationException {
+            Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener");
+            Object listener = Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[] { listenerClass },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "recordingStateChanged":
+                        case "recorderInitialized":
+                            updateEnabled();
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return FlightRecorderEvent.class.getName() + " listener";
+                        default:
+                            return null;
+                    }
+                });
+            Class.forName("jdk.jfr.FlightRecorder").getMethod("addListener", listenerClass).invoke(null, listener);
+        }
+    }
+}
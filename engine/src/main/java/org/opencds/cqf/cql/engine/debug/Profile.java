@@ -0,0 +1,133 @@
+package org.opencds.cqf.cql.engine.debug;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The cost of an evaluation, collected by a Profiler. Costs are kept per definition (keyed "Library.Name", with
+ * functions keyed "Library.Name()"), per node (keyed by library, locator and node type) and per stack of definitions
+ * and function calls, for export as flame graph folded stacks. Profiles of several evaluations, such as the
+ * results of a population run, can be combined with merge().
+ */
+public class Profile {
+
+    /**
+     * The cost of a definition or node: the number of times it was evaluated, the time spent in it including and
+     * excluding its children, and the bytes allocated while evaluating it including its children (-1 if the JVM
+     * does not report allocations).
+     */
+    public static class Entry {
+        private long count;
+        private long inclusiveNanos;
+        private long exclusiveNanos;
+        private long allocatedBytes;
+
+        public Entry() {
+        }
+
+        public Entry(long count, long inclusiveNanos, long exclusiveNanos, long allocatedBytes) {
+            this.count = count;
+            this.inclusiveNanos = inclusiveNanos;
+            this.exclusiveNanos = exclusiveNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getInclusiveNanos() {
+            return inclusiveNanos;
+        }
+
+        public long getExclusiveNanos() {
+            return exclusiveNanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        void add(long count, long inclusiveNanos, long exclusiveNanos, long allocatedBytes) {
+            this.count += count;
+            this.inclusiveNanos += inclusiveNanos;
+            this.exclusiveNanos += exclusiveNanos;
+            this.allocatedBytes = this.allocatedBytes < 0 || allocatedBytes < 0 ? -1 : this.allocatedBytes + allocatedBytes;
+        }
+
+        void add(Entry entry) {
+            add(entry.count, entry.inclusiveNanos, entry.exclusiveNanos, entry.allocatedBytes);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, inclusive=%dns, exclusive=%dns, allocated=%dB", count, inclusiveNanos, exclusiveNanos, allocatedBytes);
+        }
+    }
+
+    private final Map<String, Entry> definitions = new LinkedHashMap<>();
+    private final Map<String, Entry> nodes = new LinkedHashMap<>();
+    private final Map<String, Long> stacks = new LinkedHashMap<>();
+
+    public Map<String, Entry> getDefinitions() {
+        return Collections.unmodifiableMap(definitions);
+    }
+
+    public Map<String, Entry> getNodes() {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    /**
+     * @return the exclusive time in nanoseconds of each stack of definitions and function calls, keyed by the
+     * stack in folded form ("Library.Outer;Library.Inner()")
+     */
+    public Map<String, Long> getStacks() {
+        return Collections.unmodifiableMap(stacks);
+    }
+
+    void addDefinition(String key, Entry entry) {
+        definitions.computeIfAbsent(key, k -> new Entry()).add(entry);
+    }
+
+    void addNode(String key, Entry entry) {
+        nodes.computeIfAbsent(key, k -> new Entry()).add(entry);
+    }
+
+    void addStack(String stack, long exclusiveNanos) {
+        stacks.merge(stack, exclusiveNanos, Long::sum);
+    }
+
+    /**
+     * Adds the costs of another profile to this one.
+     * @return this profile
+     */
+    public Profile merge(Profile other) {
+        other.definitions.forEach(this::addDefinition);
+        other.nodes.forEach(this::addNode);
+        other.stacks.forEach(this::addStack);
+        return this;
+    }
+
+    void clear() {
+        definitions.clear();
+        nodes.clear();
+        stacks.clear();
+    }
+
+    /**
+     * Exports the stacks in the folded format read by flame graph tools: one line per stack, with the frames
+     * separated by semicolons followed by the exclusive time in microseconds.
+     */
+    public String toFoldedStacks() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+            long micros = stack.getValue() / 1000;
+            if (micros > 0) {
+                builder.append(stack.getKey()).append(' ').append(micros).append('\n');
+            }
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,199 @@
+package org.opencds.cqf.cql.engine.debug;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.cqframework.cql.elm.execution.Element;
+import org.cqframework.cql.elm.execution.ExpressionDef;
+import org.cqframework.cql.elm.execution.FunctionRef;
+import org.cqframework.cql.elm.execution.Library;
+import org.opencds.cqf.cql.engine.elm.execution.Executable;
+
+/**
+ * Collects the cost of each node evaluated by a Context: Executable.evaluate() calls enter() before and exit() after
+ * evaluating a node while the context has a profiler. Expression definitions and function calls are also counted
+ * as definitions, and form the frames of the stacks exported by Profile.toFoldedStacks().
+ *
+ * Time is wall time from System.nanoTime(). Allocated bytes are read from the JVM's per-thread allocation counter
+ * when it supports one, and are -1 otherwise. The inclusive cost of a recursive call is counted at each level. A
+ * profiler is owned by a single Context and is not thread-safe; the profilers of forked contexts are merged into the
+ * evaluation's profiler.
+ */
+public class Profiler {
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = threadMXBean();
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()) {
+                return (com.sun.management.ThreadMXBean) bean;
+            }
+        }
+        catch (LinkageError | RuntimeException e) {
+            // Allocations are not reported on this JVM
+        }
+
+        return null;
+    }
+
+    // The costs of a node, aggregated into a Profile by key when a snapshot is taken
+    private static class NodeCost {
+        private final String key;
+        private final String definition;
+        private long count;
+        private long inclusiveNanos;
+        private long exclusiveNanos;
+        private long allocatedBytes;
+
+        NodeCost(String key, String definition) {
+            this.key = key;
+            this.definition = definition;
+        }
+    }
+
+    private static class Frame {
+        private NodeCost cost;
+        private String stack;
+        private long startNanos;
+        private long startBytes;
+        private long childNanos;
+    }
+
+    private final Map<Executable, NodeCost> costs = new IdentityHashMap<>();
+    private final Map<String, Long> stacks = new HashMap<>();
+    private final Profile merged = new Profile();
+    private Frame[] frames = new Frame[64];
+    private int depth = 0;
+
+    public void enter(Executable node, Library currentLibrary) {
+        NodeCost cost = costs.get(node);
+        if (cost == null) {
+            String libraryName = currentLibrary != null && currentLibrary.getIdentifier() != null
+                ? currentLibrary.getIdentifier().getId() : "?";
+            cost = new NodeCost(nodeKey(node, libraryName), definitionKey(node, libraryName));
+            costs.put(node, cost);
+        }
+
+        if (depth == frames.length) {
+            Frame[] grown = new Frame[frames.length * 2];
+            System.arraycopy(frames, 0, grown, 0, frames.length);
+            frames = grown;
+        }
+
+        Frame frame = frames[depth];
+        if (frame == null) {
+            frame = new Frame();
+            frames[depth] = frame;
+        }
+
+        String parentStack = depth > 0 ? frames[depth - 1].stack : null;
+        if (cost.definition == null) {
+            frame.stack = parentStack;
+        }
+        else {
+            frame.stack = parentStack == null ? cost.definition : parentStack + ";" + cost.definition;
+        }
+
+        depth++;
+        frame.cost = cost;
+        frame.childNanos = 0;
+        frame.startBytes = allocatedBytes();
+        frame.startNanos = System.nanoTime();
+    }
+
+    public void exit() {
+        long endNanos = System.nanoTime();
+        long endBytes = allocatedBytes();
+
+        Frame frame = frames[--depth];
+        long inclusiveNanos = endNanos - frame.startNanos;
+        long exclusiveNanos = inclusiveNanos - frame.childNanos;
+
+        NodeCost cost = frame.cost;
+        cost.count++;
+        cost.inclusiveNanos += inclusiveNanos;
+        cost.exclusiveNanos += exclusiveNanos;
+        cost.allocatedBytes = endBytes < 0 ? -1 : cost.allocatedBytes + endBytes - frame.startBytes;
+
+        if (frame.stack != null) {
+            stacks.merge(frame.stack, exclusiveNanos, Long::sum);
+        }
+
+        if (depth > 0) {
+            frames[depth - 1].childNanos += inclusiveNanos;
+        }
+
+        frame.cost = null;
+        frame.stack = null;
+    }
+
+    /**
+     * Adds the costs collected by another profiler, such as that of a forked context, to this profiler.
+     */
+    public void merge(Profiler other) {
+        merged.merge(other.getProfile());
+    }
+
+    /**
+     * @return a snapshot of the costs collected so far
+     */
+    public Profile getProfile() {
+        Profile profile = new Profile();
+        for (NodeCost cost : costs.values()) {
+            if (cost.count == 0) {
+                continue;
+            }
+
+            Profile.Entry entry = new Profile.Entry(cost.count, cost.inclusiveNanos, cost.exclusiveNanos, cost.allocatedBytes);
+            profile.addNode(cost.key, entry);
+            if (cost.definition != null) {
+                profile.addDefinition(cost.definition, entry);
+            }
+        }
+
+        stacks.forEach(profile::addStack);
+        return profile.merge(merged);
+    }
+
+    public void reset() {
+        costs.clear();
+        stacks.clear();
+        merged.clear();
+        while (depth > 0) {
+            frames[--depth].cost = null;
+        }
+    }
+
+    private static long allocatedBytes() {
+        return THREAD_MX_BEAN != null ? THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static String nodeKey(Executable node, String libraryName) {
+        String location = null;
+        if (node instanceof Element) {
+            Element element = (Element) node;
+            location = element.getLocator() != null ? element.getLocator() : element.getLocalId();
+        }
+
+        String nodeType = SourceLocator.stripEvaluator(node.getClass().getSimpleName());
+        return location != null ? libraryName + ":" + location + " " + nodeType : libraryName + " " + nodeType;
+    }
+
+    private static String definitionKey(Executable node, String libraryName) {
+        if (node instanceof ExpressionDef) {
+            return libraryName + "." + ((ExpressionDef) node).getName();
+        }
+
+        if (node instanceof FunctionRef) {
+            FunctionRef ref = (FunctionRef) node;
+            return (ref.getLibraryName() != null ? ref.getLibraryName() : libraryName) + "." + ref.getName() + "()";
+        }
+
+        return null;
+    }
+}
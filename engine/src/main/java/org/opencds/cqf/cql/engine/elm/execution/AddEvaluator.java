@@ -59,6 +59,37 @@ If either argument is null, the result is null.
 
 public class AddEvaluator extends org.cqframework.cql.elm.execution.Add {
 
+    // See OperandSpecialization
+    private OperandSpecialization specialization = OperandSpecialization.UNSPECIALIZED;
+
+    private static Object addToTemporal(BaseTemporal left, Quantity right) {
+        Precision precision = Precision.fromString(right.getUnit());
+        int valueToAdd = right.getValue().intValue();
+
+        // +(DateTime, Quantity)
+        if (left instanceof DateTime) {
+            if (precision == Precision.WEEK) {
+                valueToAdd = TemporalHelper.weeksToDays(valueToAdd);
+                precision = Precision.DAY;
+            }
+
+            return new DateTime(((DateTime) left).getDateTime().plus(valueToAdd, precision.toChronoUnit()), ((DateTime) left).getPrecision());
+        }
+        // +(Date, Quantity)
+        else if (left instanceof Date) {
+            if (precision == Precision.WEEK) {
+                valueToAdd = TemporalHelper.weeksToDays(valueToAdd);
+                precision = Precision.DAY;
+            }
+
+            return new Date(((Date) left).getDate().plus(valueToAdd, precision.toChronoUnit())).setPrecision(((Date) left).getPrecision());
+        }
+        // +(Time, Quantity)
+        else {
+            return new Time(((Time) left).getTime().plus(valueToAdd, precision.toChronoUnit()), ((Time) left).getPrecision());
+        }
+    }
+
     public static Object add(Object left, Object right) {
 
         if (left == null || right == null) {
@@ -78,31 +109,7 @@ public class AddEvaluator extends org.cqframework.cql.elm.execution.Add {
         }
 
         else if (left instanceof BaseTemporal && right instanceof Quantity) {
-            Precision precision = Precision.fromString(((Quantity) right).getUnit());
-            int valueToAdd = ((Quantity) right).getValue().intValue();
-
-            // +(DateTime, Quantity)
-            if (left instanceof DateTime) {
-                if (precision == Precision.WEEK) {
-                    valueToAdd = TemporalHelper.weeksToDays(valueToAdd);
-                    precision = Precision.DAY;
-                }
-
-                return new DateTime(((DateTime) left).getDateTime().plus(valueToAdd, precision.toChronoUnit()), ((DateTime) left).getPrecision());
-            }
-            // +(Date, Quantity)
-            else if (left instanceof Date) {
-                if (precision == Precision.WEEK) {
-                    valueToAdd = TemporalHelper.weeksToDays(valueToAdd);
-                    precision = Precision.DAY;
-                }
-
-                return new Date(((Date) left).getDate().plus(valueToAdd, precision.toChronoUnit())).setPrecision(((Date) left).getPrecision());
-            }
-            // +(Time, Quantity)
-            else {
-                return new Time(((Time) left).getTime().plus(valueToAdd, precision.toChronoUnit()), ((Time) left).getPrecision());
-            }
+            return addToTemporal((BaseTemporal) left, (Quantity) right);
         }
 
         // +(Uncertainty, Uncertainty)
@@ -127,6 +134,34 @@ public class AddEvaluator extends org.cqframework.cql.elm.execution.Add {
         Object left = getOperand().get(0).evaluate(context);
         Object right = getOperand().get(1).evaluate(context);
 
+        if (left != null && right != null) {
+            switch (specialization) {
+                case INTEGER:
+                    if (left instanceof Integer && right instanceof Integer) {
+                        return (Integer) left + (Integer) right;
+                    }
+                    break;
+                case DECIMAL:
+                    if (left instanceof BigDecimal && right instanceof BigDecimal) {
+                        return Value.verifyPrecision(((BigDecimal) left).add((BigDecimal) right), null);
+                    }
+                    break;
+                case QUANTITY:
+                    if (left instanceof Quantity && right instanceof Quantity) {
+                        return new Quantity().withValue((((Quantity) left).getValue()).add(((Quantity) right).getValue())).withUnit(((Quantity) left).getUnit());
+                    }
+                    break;
+                case TEMPORAL:
+                    if (left instanceof BaseTemporal && right instanceof Quantity) {
+                        return addToTemporal((BaseTemporal) left, (Quantity) right);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            specialization = specialization.next(left, right);
+        }
+
         return add(left, right);
     }
 }
@@ -4,8 +4,22 @@ import org.opencds.cqf.cql.engine.execution.Context;
 
 public class AliasRefEvaluator extends org.cqframework.cql.elm.execution.AliasRef {
 
+    // Set when the library is linked, see LibraryLinker
+    private int slot = -1;
+
+    /**
+     * Binds this reference to the slot of its alias in the window of the enclosing definition or function call.
+     */
+    public void bind(int slot) {
+        this.slot = slot;
+    }
+
     @Override
     protected Object internalEvaluate(Context context) {
+        if (slot >= 0) {
+            return context.resolveAlias(slot, this.getName());
+        }
+
         return context.resolveAlias(this.getName());
     }
 }
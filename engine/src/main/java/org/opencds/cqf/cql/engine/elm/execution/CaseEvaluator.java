@@ -31,7 +31,7 @@ public class CaseEvaluator extends org.cqframework.cql.elm.execution.Case {
     public Object selectedCase(Context context, Object comparand) {
         for (CaseItem caseItem : getCaseItem()) {
             Object when = caseItem.getWhen().evaluate(context);
-            Boolean check = EquivalentEvaluator.equivalent(comparand, when);
+            Boolean check = EquivalentEvaluator.equivalent(comparand, when, context);
             if (check == null) {
                 continue;
             }
@@ -0,0 +1,30 @@
+package org.opencds.cqf.cql.engine.elm.execution;
+
+import org.cqframework.cql.elm.execution.Expression;
+import org.opencds.cqf.cql.engine.execution.Context;
+
+/**
+ * Not part of ELM: takes the place of an expression whose value was computed when the library was loaded (see
+ * ConstantFolder). It keeps the local id, locator and result type of the expression it replaces.
+ */
+public class ConstantEvaluator extends Expression {
+
+    private final Object value;
+
+    public ConstantEvaluator(Expression expression, Object value) {
+        this.value = value;
+        this.setLocalId(expression.getLocalId());
+        this.setLocator(expression.getLocator());
+        this.setResultTypeName(expression.getResultTypeName());
+        this.setResultTypeSpecifier(expression.getResultTypeSpecifier());
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    protected Object internalEvaluate(Context context) {
+        return value;
+    }
+}
@@ -49,7 +49,7 @@ public class CountEvaluator extends org.cqframework.cql.elm.execution.Count {
 
     @Override
     protected Object internalEvaluate(Context context) {
-        Object source = getSource().evaluate(context);
+        Object source = QueryEvaluator.evaluateStreaming(getSource(), context);
         return count(source);
     }
 }
@@ -18,6 +18,11 @@ public class DistinctEvaluator extends org.cqframework.cql.elm.execution.Distinc
 {
 
     public static List<Object> distinct(Iterable<?> source)
+    {
+        return distinct(source, null);
+    }
+
+    public static List<Object> distinct(Iterable<?> source, Context context)
     {
         if (source == null)
         {
@@ -33,7 +38,7 @@ public class DistinctEvaluator extends org.cqframework.cql.elm.execution.Distinc
                 continue;
             }
 
-            Object in = InEvaluator.in(element, result, null);
+            Object in = InEvaluator.in(element, result, null, context);
 
             if (in == null) continue;
 
@@ -47,6 +52,6 @@ public class DistinctEvaluator extends org.cqframework.cql.elm.execution.Distinc
     protected Object internalEvaluate(Context context)
     {
         Object value = this.getOperand().evaluate(context);
-        return distinct((Iterable<?>)value);
+        return distinct((Iterable<?>)value, context);
     }
 }
@@ -3,9 +3,11 @@ package org.opencds.cqf.cql.engine.elm.execution;
 import java.math.BigDecimal;
 
 import org.opencds.cqf.cql.engine.execution.Context;
+import org.opencds.cqf.cql.engine.runtime.BaseTemporal;
 import org.opencds.cqf.cql.engine.runtime.CqlList;
 import org.opencds.cqf.cql.engine.runtime.CqlType;
 import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.runtime.Quantity;
 
 /*
 *** NOTES FOR CLINICAL OPERATORS ***
@@ -34,7 +36,14 @@ If either argument is null, or contains null elements, the result is null.
 
 public class EqualEvaluator extends org.cqframework.cql.elm.execution.Equal {
 
+    // See OperandSpecialization
+    private OperandSpecialization specialization = OperandSpecialization.UNSPECIALIZED;
+
     public static Boolean equal(Object left, Object right) {
+        return equal(left, right, null);
+    }
+
+    public static Boolean equal(Object left, Object right, Context context) {
         if (left == null || right == null) {
             return null;
         }
@@ -60,14 +69,18 @@ public class EqualEvaluator extends org.cqframework.cql.elm.execution.Equal {
         }
 
         else if (left instanceof Iterable && right instanceof Iterable) {
-            return CqlList.equal((Iterable<?>) left, (Iterable<?>) right);
+            return CqlList.equal((Iterable<?>) left, (Iterable<?>) right, context);
         }
 
         else if (left instanceof CqlType && right instanceof CqlType) {
             return ((CqlType) left).equal(right);
         }
 
-        return Context.getContext().objectEqual(left, right);
+        if (context == null) {
+            context = Context.getContext();
+        }
+
+        return context.objectEqual(left, right);
     }
 
     @Override
@@ -75,6 +88,31 @@ public class EqualEvaluator extends org.cqframework.cql.elm.execution.Equal {
         Object left = getOperand().get(0).evaluate(context);
         Object right = getOperand().get(1).evaluate(context);
 
-        return equal(left, right);
+        if (left != null && right != null) {
+            switch (specialization) {
+                case INTEGER:
+                    if (left instanceof Integer && right instanceof Integer) {
+                        return left.equals(right);
+                    }
+                    break;
+                case DECIMAL:
+                    if (left instanceof BigDecimal && right instanceof BigDecimal) {
+                        return ((BigDecimal) left).compareTo((BigDecimal) right) == 0;
+                    }
+                    break;
+                case QUANTITY:
+                case TEMPORAL:
+                    // Operands of different classes are not equal, which the generic path reports
+                    if ((left instanceof Quantity || left instanceof BaseTemporal) && left.getClass() == right.getClass()) {
+                        return ((CqlType) left).equal(right);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            specialization = specialization.next(left, right);
+        }
+
+        return equal(left, right, context);
     }
 }
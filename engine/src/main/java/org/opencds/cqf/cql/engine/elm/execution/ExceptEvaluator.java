@@ -34,6 +34,11 @@ If either argument is null, the result is null.
 public class ExceptEvaluator extends org.cqframework.cql.elm.execution.Except
 {
     public static Object except(Object left, Object right)
+    {
+        return except(left, right, null);
+    }
+
+    public static Object except(Object left, Object right, Context context)
     {
         if (left == null )
         {
@@ -126,14 +131,14 @@ public class ExceptEvaluator extends org.cqframework.cql.elm.execution.Except
             Boolean in;
             for (Object leftItem : leftArr)
             {
-                in = InEvaluator.in(leftItem, rightArr, null);
+                in = InEvaluator.in(leftItem, rightArr, null, context);
                 if (in != null && !in)
                 {
                     result.add(leftItem);
                 }
             }
 
-            return DistinctEvaluator.distinct(result);
+            return DistinctEvaluator.distinct(result, context);
         }
 
         throw new InvalidOperatorArgument(
@@ -148,6 +153,6 @@ public class ExceptEvaluator extends org.cqframework.cql.elm.execution.Except
         Object left = getOperand().get(0).evaluate(context);
         Object right = getOperand().get(1).evaluate(context);
 
-        return except(left, right);
+        return except(left, right, context);
     }
 }
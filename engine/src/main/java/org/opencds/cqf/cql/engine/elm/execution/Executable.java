@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
 import org.apache.commons.lang3.NotImplementedException;
 import org.opencds.cqf.cql.engine.debug.DebugAction;
+import org.opencds.cqf.cql.engine.debug.Profiler;
 import org.opencds.cqf.cql.engine.debug.SourceLocator;
 import org.opencds.cqf.cql.engine.exception.CqlException;
 import org.opencds.cqf.cql.engine.execution.Context;
@@ -13,6 +14,26 @@ public class Executable
 {
     public Object evaluate(Context context) throws CqlException
     {
+        // Debugging and profiling are off for most evaluations, so they cost a single check per node
+        if (context.isInstrumented()) {
+            return evaluateInstrumented(context);
+        }
+
+        try {
+            return internalEvaluate(context);
+        }
+        catch (Exception e) {
+            throw toCqlException(e, context);
+        }
+    }
+
+    private Object evaluateInstrumented(Context context) throws CqlException
+    {
+        Profiler profiler = context.getProfiler();
+        if (profiler != null) {
+            profiler.enter(this, context.getCurrentLibrary());
+        }
+
         try {
             DebugAction action = context.shouldDebug(this);
             Object result = internalEvaluate(context);
@@ -22,25 +43,35 @@ public class Executable
             return result;
         }
         catch (Exception e) {
-            if (e instanceof CqlException) {
-                CqlException ce = (CqlException)e;
-                if (ce.getSourceLocator() == null) {
-                    ce.setSourceLocator(SourceLocator.fromNode(this, context.getCurrentLibrary()));
-                    DebugAction action = context.shouldDebug(ce);
-                    if (action != DebugAction.NONE) {
-                        context.logDebugError(ce);
-                    }
-                }
-                throw e;
+            throw toCqlException(e, context);
+        }
+        finally {
+            if (profiler != null) {
+                profiler.exit();
             }
-            else {
-                CqlException ce = new CqlException(e, SourceLocator.fromNode(this, context.getCurrentLibrary()));
+        }
+    }
+
+    private CqlException toCqlException(Exception e, Context context)
+    {
+        if (e instanceof CqlException) {
+            CqlException ce = (CqlException)e;
+            if (ce.getSourceLocator() == null) {
+                ce.setSourceLocator(SourceLocator.fromNode(this, context.getCurrentLibrary()));
                 DebugAction action = context.shouldDebug(ce);
                 if (action != DebugAction.NONE) {
                     context.logDebugError(ce);
                 }
-                throw ce;
             }
+            return ce;
+        }
+        else {
+            CqlException ce = new CqlException(e, SourceLocator.fromNode(this, context.getCurrentLibrary()));
+            DebugAction action = context.shouldDebug(ce);
+            if (action != DebugAction.NONE) {
+                context.logDebugError(ce);
+            }
+            return ce;
         }
     }
 
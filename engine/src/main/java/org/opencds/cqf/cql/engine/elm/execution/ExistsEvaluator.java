@@ -1,7 +1,6 @@
 package org.opencds.cqf.cql.engine.elm.execution;
 
 import org.opencds.cqf.cql.engine.execution.Context;
-import org.opencds.cqf.cql.engine.runtime.CqlList;
 
 /*
 exists(argument List<T>) Boolean
@@ -20,12 +19,12 @@ public class ExistsEvaluator extends org.cqframework.cql.elm.execution.Exists {
             return false;
         }
 
-        return !CqlList.toList(value, true).isEmpty();
+        return value.iterator().hasNext();
     }
 
     @Override
     protected Object internalEvaluate(Context context) {
-        Object operand = getOperand().evaluate(context);
+        Object operand = QueryEvaluator.evaluateStreaming(getOperand(), context);
 
         return exists(operand);
     }
@@ -0,0 +1,249 @@
+package org.opencds.cqf.cql.engine.elm.execution;
+
+import org.cqframework.cql.elm.execution.BinaryExpression;
+import org.cqframework.cql.elm.execution.Expression;
+import org.cqframework.cql.elm.execution.ExpressionDef;
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.UnaryExpression;
+import org.opencds.cqf.cql.engine.debug.SourceLocator;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.execution.Context;
+
+/**
+ * Compiles the bodies of expression definitions into trees of closures. A compiled logical, comparison, arithmetic
+ * or conversion operator evaluates its compiled operands and calls the static helper of its evaluator directly,
+ * without going through Executable.evaluate() and its debug check for every node. Any other node is evaluated by
+ * calling its internalEvaluate() (its children are evaluated by the interpreter as usual).
+ *
+ * Compiled operators evaluate their operands in the same order as the evaluators, including both operands of And
+ * and Or, and report errors with the same source locator, so compiled and interpreted results are identical.
+ * Compiled bodies are not used while debugging (see ExpressionDefEvaluator).
+ */
+public class ExpressionCompiler {
+
+    public interface CompiledExpression {
+        Object evaluate(Context context);
+    }
+
+    private interface UnaryOperator {
+        Object apply(Object operand);
+    }
+
+    private interface BinaryOperator {
+        Object apply(Object left, Object right, Context context);
+    }
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * Compiles the body of each expression definition of a library and binds it to the definition.
+     * @return the number of nodes compiled to direct calls, as opposed to evaluated by the interpreter
+     */
+    public static int compile(Library library) {
+        int[] count = { 0 };
+        if (library.getStatements() != null) {
+            for (ExpressionDef def : library.getStatements().getDef()) {
+                if (def instanceof ExpressionDefEvaluator && def.getExpression() != null) {
+                    ((ExpressionDefEvaluator) def).bindCompiledExpression(compile(def.getExpression(), count));
+                }
+            }
+        }
+
+        return count[0];
+    }
+
+    private static CompiledExpression compile(Expression node, int[] count) {
+        if (node instanceof ConstantEvaluator) {
+            Object value = ((ConstantEvaluator) node).getValue();
+            count[0]++;
+            return context -> value;
+        }
+
+        if (node instanceof NullEvaluator) {
+            count[0]++;
+            return context -> null;
+        }
+
+        if (node instanceof IfEvaluator) {
+            IfEvaluator ifNode = (IfEvaluator) node;
+            CompiledExpression condition = compile(ifNode.getCondition(), count);
+            CompiledExpression thenExpression = compile(ifNode.getThen(), count);
+            CompiledExpression elseExpression = compile(ifNode.getElse(), count);
+            count[0]++;
+            return context -> {
+                Object value = condition.evaluate(context);
+                boolean isTrue;
+                try {
+                    isTrue = value != null && (Boolean) value;
+                }
+                catch (Exception e) {
+                    throw error(node, context, e);
+                }
+                return isTrue ? thenExpression.evaluate(context) : elseExpression.evaluate(context);
+            };
+        }
+
+        // Negating the literal 2147483648 is special-cased by the evaluator
+        if (node instanceof NegateEvaluator && !(((NegateEvaluator) node).getOperand() instanceof LiteralEvaluator)) {
+            return unary((UnaryExpression) node, NegateEvaluator::negate, count);
+        }
+
+        if (node instanceof NotEvaluator) {
+            return unary((UnaryExpression) node, NotEvaluator::not, count);
+        }
+
+        // Exists reads a query operand as a stream, stopping at the first row (see QueryEvaluator)
+        if (node instanceof ExistsEvaluator && !(((ExistsEvaluator) node).getOperand() instanceof QueryEvaluator)) {
+            return unary((UnaryExpression) node, ExistsEvaluator::exists, count);
+        }
+
+        if (node instanceof IsNullEvaluator) {
+            return unary((UnaryExpression) node, IsNullEvaluator::isNull, count);
+        }
+
+        if (node instanceof IsTrueEvaluator) {
+            return unary((UnaryExpression) node, operand -> IsTrueEvaluator.isTrue((Boolean) operand), count);
+        }
+
+        if (node instanceof IsFalseEvaluator) {
+            return unary((UnaryExpression) node, operand -> IsFalseEvaluator.isFalse((Boolean) operand), count);
+        }
+
+        if (node instanceof ToDecimalEvaluator) {
+            return unary((UnaryExpression) node, ToDecimalEvaluator::toDecimal, count);
+        }
+
+        if (node instanceof ToIntegerEvaluator) {
+            return unary((UnaryExpression) node, ToIntegerEvaluator::toInteger, count);
+        }
+
+        if (node instanceof ToStringEvaluator) {
+            return unary((UnaryExpression) node, ToStringEvaluator::toString, count);
+        }
+
+        if (node instanceof AndEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> AndEvaluator.and(left, right), count);
+        }
+
+        if (node instanceof OrEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> OrEvaluator.or(left, right), count);
+        }
+
+        if (node instanceof XorEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> XorEvaluator.xor(left, right), count);
+        }
+
+        if (node instanceof ImpliesEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> ImpliesEvaluator.implies((Boolean) left, (Boolean) right), count);
+        }
+
+        if (node instanceof EqualEvaluator) {
+            return binary((BinaryExpression) node, EqualEvaluator::equal, count);
+        }
+
+        if (node instanceof NotEqualEvaluator) {
+            return binary((BinaryExpression) node, NotEqualEvaluator::notEqual, count);
+        }
+
+        if (node instanceof EquivalentEvaluator) {
+            return binary((BinaryExpression) node, EquivalentEvaluator::equivalent, count);
+        }
+
+        if (node instanceof GreaterEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> GreaterEvaluator.greater(left, right), count);
+        }
+
+        if (node instanceof GreaterOrEqualEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> GreaterOrEqualEvaluator.greaterOrEqual(left, right), count);
+        }
+
+        if (node instanceof LessEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> LessEvaluator.less(left, right), count);
+        }
+
+        if (node instanceof LessOrEqualEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> LessOrEqualEvaluator.lessOrEqual(left, right), count);
+        }
+
+        if (node instanceof AddEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> AddEvaluator.add(left, right), count);
+        }
+
+        if (node instanceof SubtractEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> SubtractEvaluator.subtract(left, right), count);
+        }
+
+        if (node instanceof MultiplyEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> MultiplyEvaluator.multiply(left, right), count);
+        }
+
+        if (node instanceof DivideEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> DivideEvaluator.divide(left, right), count);
+        }
+
+        if (node instanceof ConcatenateEvaluator) {
+            return binary((BinaryExpression) node, (left, right, context) -> ConcatenateEvaluator.concatenate(left, right), count);
+        }
+
+        return interpret(node);
+    }
+
+    private static CompiledExpression unary(UnaryExpression node, UnaryOperator operator, int[] count) {
+        CompiledExpression operand = compile(node.getOperand(), count);
+        count[0]++;
+        return context -> {
+            Object value = operand.evaluate(context);
+            try {
+                return operator.apply(value);
+            }
+            catch (Exception e) {
+                throw error(node, context, e);
+            }
+        };
+    }
+
+    private static CompiledExpression binary(BinaryExpression node, BinaryOperator operator, int[] count) {
+        if (node.getOperand().size() != 2) {
+            return interpret(node);
+        }
+
+        CompiledExpression left = compile(node.getOperand().get(0), count);
+        CompiledExpression right = compile(node.getOperand().get(1), count);
+        count[0]++;
+        return context -> {
+            Object leftValue = left.evaluate(context);
+            Object rightValue = right.evaluate(context);
+            try {
+                return operator.apply(leftValue, rightValue, context);
+            }
+            catch (Exception e) {
+                throw error(node, context, e);
+            }
+        };
+    }
+
+    private static CompiledExpression interpret(Expression node) {
+        return context -> {
+            try {
+                return node.internalEvaluate(context);
+            }
+            catch (Exception e) {
+                throw error(node, context, e);
+            }
+        };
+    }
+
+    // Reports an error the way Executable.evaluate() does
+    private static CqlException error(Executable node, Context context, Exception e) {
+        if (e instanceof CqlException) {
+            CqlException ce = (CqlException) e;
+            if (ce.getSourceLocator() == null) {
+                ce.setSourceLocator(SourceLocator.fromNode(node, context.getCurrentLibrary()));
+            }
+            return ce;
+        }
+
+        return new CqlException(e, SourceLocator.fromNode(node, context.getCurrentLibrary()));
+    }
+}
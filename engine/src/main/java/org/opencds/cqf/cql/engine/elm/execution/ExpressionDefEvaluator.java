@@ -1,22 +1,86 @@
 package org.opencds.cqf.cql.engine.elm.execution;
 
+import java.util.Collections;
+import java.util.List;
+
+import org.cqframework.cql.elm.execution.ExpressionDef;
 import org.cqframework.cql.elm.execution.VersionedIdentifier;
+import org.opencds.cqf.cql.engine.debug.FlightRecorderEvent;
 import org.opencds.cqf.cql.engine.execution.Context;
 
 public class ExpressionDefEvaluator extends org.cqframework.cql.elm.execution.ExpressionDef {
 
+    // Set when the library is linked, see LibraryLinker
+    private boolean isContextIndependent;
+    private List<ExpressionDef> dependencies = Collections.emptyList();
+    // Set when the library is compiled, see ExpressionCompiler
+    private ExpressionCompiler.CompiledExpression compiledExpression;
+
+    /**
+     * Marks this definition as giving the same result in every context, so it can be evaluated once and shared by
+     * the contexts of a batch (see SharedExpressionCache).
+     */
+    public void bindContextIndependent(boolean isContextIndependent) {
+        this.isContextIndependent = isContextIndependent;
+    }
+
+    public boolean isContextIndependent() {
+        return isContextIndependent;
+    }
+
+    /**
+     * Records the definitions this definition references, directly or through the functions it calls.
+     */
+    public void bindDependencies(List<ExpressionDef> dependencies) {
+        this.dependencies = Collections.unmodifiableList(dependencies);
+    }
+
+    public List<ExpressionDef> getDependencies() {
+        return dependencies;
+    }
+
+    public void bindCompiledExpression(ExpressionCompiler.CompiledExpression compiledExpression) {
+        this.compiledExpression = compiledExpression;
+    }
+
+    private Object evaluateExpression(Context context) {
+        // A definition cannot see the variables of whatever referenced it, so it gets its own window, which is what
+        // makes the slots of its aliases and lets known when the library is linked
+        context.pushWindow();
+        try {
+            // Debugging and profiling need every node to go through Executable.evaluate()
+            if (compiledExpression != null && context.getDebugMap() == null && context.getProfiler() == null) {
+                return compiledExpression.evaluate(context);
+            }
+
+            return this.getExpression().evaluate(context);
+        }
+        finally {
+            context.popWindow();
+        }
+    }
+
     @Override
     protected Object internalEvaluate(Context context) {
+        FlightRecorderEvent.Started event = FlightRecorderEvent.EXPRESSION_DEF.begin();
         if (this.getContext() != null) {
             context.enterContext(this.getContext());
         }
         try {
+            if (isContextIndependent && context.getSharedExpressionCache() != null) {
+                return context.getSharedExpressionCache().get(this, context, () -> evaluateExpression(context));
+            }
+
+            if (context.getParallelExpressionCache() != null) {
+                return context.getParallelExpressionCache().get(this, context, () -> evaluateExpression(context));
+            }
+
             VersionedIdentifier libraryId = context.getCurrentLibrary().getIdentifier();
             if (context.isExpressionCachingEnabled() && context.isExpressionInCache(libraryId, this.getName())) {
                 return context.getExpressionResultFromCache(libraryId, this.getName());
             }
 
-            Object result = this.getExpression().evaluate(context);
+            Object result = evaluateExpression(context);
 
             if (context.isExpressionCachingEnabled() && !context.isExpressionInCache(libraryId, this.getName())) {
                 context.addExpressionToCache(libraryId, this.getName(), result);
@@ -28,6 +92,9 @@ public class ExpressionDefEvaluator extends org.cqframework.cql.elm.execution.Ex
             if (this.getContext() != null) {
                 context.exitContext();
             }
+            if (event != null) {
+                event.commit(context.getCurrentLibrary().getIdentifier().getId(), this.getName());
+            }
         }
     }
 }
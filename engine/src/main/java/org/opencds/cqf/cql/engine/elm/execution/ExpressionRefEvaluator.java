@@ -1,11 +1,48 @@
 package org.opencds.cqf.cql.engine.elm.execution;
 
+import org.cqframework.cql.elm.execution.ExpressionDef;
+import org.cqframework.cql.elm.execution.Library;
 import org.opencds.cqf.cql.engine.execution.Context;
 
 public class ExpressionRefEvaluator extends org.cqframework.cql.elm.execution.ExpressionRef {
 
+    // Set when the library is linked, see LibraryLinker
+    private Library library;
+    private ExpressionDef expressionDef;
+
+    /**
+     * Binds this reference to its target so that it is not resolved by name on each evaluation.
+     * @param library the included library containing the target, or null if it is in the referencing library
+     * @param expressionDef the target
+     */
+    public void bind(Library library, ExpressionDef expressionDef) {
+        this.library = library;
+        this.expressionDef = expressionDef;
+    }
+
+    /**
+     * @return the target this reference was bound to when the library was linked, or null if it was not bound
+     */
+    public ExpressionDef getBoundExpressionDef() {
+        return expressionDef;
+    }
+
     @Override
     protected Object internalEvaluate(Context context) {
+        if (expressionDef != null) {
+            if (library == null) {
+                return expressionDef.evaluate(context);
+            }
+
+            context.enterIncludedLibrary(library);
+            try {
+                return expressionDef.evaluate(context);
+            }
+            finally {
+                context.exitLibrary(true);
+            }
+        }
+
         boolean enteredLibrary = context.enterLibrary(this.getLibraryName());
         try {
             return context.resolveExpressionRef(this.getName()).evaluate(context);
@@ -5,7 +5,6 @@ import java.util.List;
 
 import org.cqframework.cql.elm.execution.Filter;
 import org.opencds.cqf.cql.engine.execution.Context;
-import org.opencds.cqf.cql.engine.execution.Variable;
 
 public class FilterEvaluator extends Filter {
 
@@ -26,7 +25,7 @@ public class FilterEvaluator extends Filter {
                     // Hmmm... This is hard without the alias.
                     // TODO: verify this works for all cases -> will scope always be present?
                     if (this.scope != null) {
-                        context.push(new Variable().withName(this.getScope()).withValue(obj));
+                        context.push(this.getScope(), obj);
                     }
 
                     Object condition = this.getCondition().evaluate(context);
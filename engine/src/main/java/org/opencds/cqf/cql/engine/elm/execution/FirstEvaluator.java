@@ -26,7 +26,7 @@ public class FirstEvaluator extends org.cqframework.cql.elm.execution.First {
 
     @Override
     protected Object internalEvaluate(Context context) {
-        Object source = getSource().evaluate(context);
+        Object source = QueryEvaluator.evaluateStreaming(getSource(), context);
 
         return first(source);
     }
@@ -1,15 +1,93 @@
 package org.opencds.cqf.cql.engine.elm.execution;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.cqframework.cql.elm.execution.Expression;
 import org.cqframework.cql.elm.execution.FunctionDef;
+import org.cqframework.cql.elm.execution.Library;
 import org.opencds.cqf.cql.engine.execution.Context;
-import org.opencds.cqf.cql.engine.execution.Variable;
 
 public class FunctionRefEvaluator extends org.cqframework.cql.elm.execution.FunctionRef {
 
+    // The most overloads a reference remembers; beyond this every call is resolved by the Context
+    private static final int MAX_CACHED_OVERLOADS = 8;
+
+    /**
+     * An overload resolved at run time for arguments of particular classes. Resolution only depends on the classes
+     * of the arguments (resolveType() maps a value to a type by its class), so the same classes always resolve to
+     * the same overload within the same library.
+     */
+    private static class CachedOverload {
+        private final Library library;
+        private final Class<?>[] argumentClasses;
+        private final FunctionDef functionDef;
+
+        CachedOverload(Library library, List<Object> arguments, FunctionDef functionDef) {
+            this.library = library;
+            this.argumentClasses = new Class<?>[arguments.size()];
+            for (int i = 0; i < arguments.size(); i++) {
+                this.argumentClasses[i] = arguments.get(i) == null ? null : arguments.get(i).getClass();
+            }
+            this.functionDef = functionDef;
+        }
+
+        boolean matches(Library library, List<Object> arguments) {
+            if (this.library != library || argumentClasses.length != arguments.size()) {
+                return false;
+            }
+
+            for (int i = 0; i < argumentClasses.length; i++) {
+                Object argument = arguments.get(i);
+                if (argumentClasses[i] != (argument == null ? null : argument.getClass())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    // Set when the library is linked and the overload can be chosen statically, see LibraryLinker
+    private Library library;
+    private FunctionDef functionDef;
+    private boolean isPure;
+
+    // Overloads resolved at run time for references that could not be bound: the first one resolved, checked
+    // without allocating, then any others in the order they were resolved
+    private volatile CachedOverload cachedOverload;
+    private final List<CachedOverload> cachedOverloads = new CopyOnWriteArrayList<>();
+
+    /**
+     * Binds this reference to its target so that the overload is not resolved on each evaluation.
+     * @param library the included library containing the target, or null if it is in the referencing library
+     * @param functionDef the target
+     */
+    public void bind(Library library, FunctionDef functionDef) {
+        this.library = library;
+        this.functionDef = functionDef;
+    }
+
+    /**
+     * @return the target this reference was bound to when the library was linked, or null if it was not bound
+     */
+    public FunctionDef getBoundFunctionDef() {
+        return functionDef;
+    }
+
+    /**
+     * Marks the target as pure, so its results can be remembered by argument (see FunctionMemo).
+     */
+    public void bindPure(boolean isPure) {
+        this.isPure = isPure;
+    }
+
+    public boolean isPure() {
+        return isPure;
+    }
+
     @Override
     protected Object internalEvaluate(Context context) {
         ArrayList<Object> arguments = new ArrayList<>();
@@ -17,28 +95,68 @@ public class FunctionRefEvaluator extends org.cqframework.cql.elm.execution.Func
             arguments.add(operand.evaluate(context));
         }
 
-        boolean enteredLibrary = context.enterLibrary(this.getLibraryName());
+        boolean enteredLibrary;
+        if (this.functionDef != null) {
+            enteredLibrary = library != null;
+            if (enteredLibrary) {
+                context.enterIncludedLibrary(library);
+            }
+        }
+        else {
+            enteredLibrary = context.enterLibrary(this.getLibraryName());
+        }
+
         try {
-            // TODO: Use type specifiers from the operands here if they are available
-            FunctionDef functionDef = context.resolveFunctionRef(this.getName(), arguments, this.getLibraryName());
+            FunctionDef functionDef = this.functionDef != null ? this.functionDef : resolveFunctionDef(context, arguments);
             if (Optional.ofNullable(functionDef.isExternal()).orElse(false)) {
                 return context.getExternalFunctionProvider().evaluate(functionDef.getName(), arguments);
             }
+            else if (this.isPure && context.getFunctionMemo() != null) {
+                return context.getFunctionMemo().get(functionDef, arguments, () -> invoke(context, functionDef, arguments));
+            }
             else {
-                context.pushWindow();
-                try {
-                    for (int i = 0; i < arguments.size(); i++) {
-                        context.push(new Variable().withName(functionDef.getOperand().get(i).getName()).withValue(arguments.get(i)));
-                    }
-                    return functionDef.getExpression().evaluate(context);
-                }
-                finally {
-                    context.popWindow();
-                }
+                return invoke(context, functionDef, arguments);
             }
         }
         finally {
             context.exitLibrary(enteredLibrary);
         }
     }
+
+    private FunctionDef resolveFunctionDef(Context context, List<Object> arguments) {
+        Library library = context.getCurrentLibrary();
+        CachedOverload overload = this.cachedOverload;
+        if (overload != null && overload.matches(library, arguments)) {
+            return overload.functionDef;
+        }
+
+        for (CachedOverload candidate : this.cachedOverloads) {
+            if (candidate.matches(library, arguments)) {
+                return candidate.functionDef;
+            }
+        }
+
+        FunctionDef functionDef = context.resolveFunctionRef(this.getName(), arguments, this.getLibraryName());
+        if (overload == null) {
+            this.cachedOverload = new CachedOverload(library, arguments, functionDef);
+        }
+        else if (this.cachedOverloads.size() < MAX_CACHED_OVERLOADS) {
+            this.cachedOverloads.add(new CachedOverload(library, arguments, functionDef));
+        }
+
+        return functionDef;
+    }
+
+    private static Object invoke(Context context, FunctionDef functionDef, List<Object> arguments) {
+        context.pushWindow();
+        try {
+            for (int i = 0; i < arguments.size(); i++) {
+                context.push(functionDef.getOperand().get(i).getName(), arguments.get(i));
+            }
+            return functionDef.getExpression().evaluate(context);
+        }
+        finally {
+            context.popWindow();
+        }
+    }
 }
@@ -41,6 +41,9 @@ If either argument is null, the result is null.
 
 public class GreaterEvaluator extends org.cqframework.cql.elm.execution.Greater {
 
+    // See OperandSpecialization
+    private OperandSpecialization specialization = OperandSpecialization.UNSPECIALIZED;
+
     public static Boolean greater(Object left, Object right) {
 
         if (left == null || right == null) {
@@ -98,6 +101,36 @@ public class GreaterEvaluator extends org.cqframework.cql.elm.execution.Greater
         Object left = getOperand().get(0).evaluate(context);
         Object right = getOperand().get(1).evaluate(context);
 
+        if (left != null && right != null) {
+            switch (specialization) {
+                case INTEGER:
+                    if (left instanceof Integer && right instanceof Integer) {
+                        return ((Integer) left).compareTo((Integer) right) > 0;
+                    }
+                    break;
+                case DECIMAL:
+                    if (left instanceof BigDecimal && right instanceof BigDecimal) {
+                        return ((BigDecimal) left).compareTo((BigDecimal) right) > 0;
+                    }
+                    break;
+                case QUANTITY:
+                    if (left instanceof Quantity && right instanceof Quantity) {
+                        Integer comparison = OperandSpecialization.compare((Quantity) left, (Quantity) right);
+                        return comparison == null ? null : comparison > 0;
+                    }
+                    break;
+                case TEMPORAL:
+                    if (left instanceof BaseTemporal && right instanceof BaseTemporal) {
+                        Integer comparison = ((BaseTemporal) left).compare((BaseTemporal) right, false);
+                        return comparison == null ? null : comparison > 0;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            specialization = specialization.next(left, right);
+        }
+
         return greater(left, right);
     }
 }
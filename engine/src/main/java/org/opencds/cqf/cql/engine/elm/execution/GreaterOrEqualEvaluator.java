@@ -26,6 +26,9 @@ If either argument is null, the result is null.
 
 public class GreaterOrEqualEvaluator extends org.cqframework.cql.elm.execution.GreaterOrEqual {
 
+    // See OperandSpecialization
+    private OperandSpecialization specialization = OperandSpecialization.UNSPECIALIZED;
+
   public static Boolean greaterOrEqual(Object left, Object right) {
 
     if (left == null || right == null) {
@@ -75,6 +78,36 @@ public class GreaterOrEqualEvaluator extends org.cqframework.cql.elm.execution.G
         Object left = getOperand().get(0).evaluate(context);
         Object right = getOperand().get(1).evaluate(context);
 
+        if (left != null && right != null) {
+            switch (specialization) {
+                case INTEGER:
+                    if (left instanceof Integer && right instanceof Integer) {
+                        return ((Integer) left).compareTo((Integer) right) >= 0;
+                    }
+                    break;
+                case DECIMAL:
+                    if (left instanceof BigDecimal && right instanceof BigDecimal) {
+                        return ((BigDecimal) left).compareTo((BigDecimal) right) >= 0;
+                    }
+                    break;
+                case QUANTITY:
+                    if (left instanceof Quantity && right instanceof Quantity) {
+                        Integer comparison = OperandSpecialization.compare((Quantity) left, (Quantity) right);
+                        return comparison == null ? null : comparison >= 0;
+                    }
+                    break;
+                case TEMPORAL:
+                    if (left instanceof BaseTemporal && right instanceof BaseTemporal) {
+                        Integer comparison = ((BaseTemporal) left).compare((BaseTemporal) right, false);
+                        return comparison == null ? null : comparison >= 0;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            specialization = specialization.next(left, right);
+        }
+
         return greaterOrEqual(left, right);
     }
 }
@@ -1,10 +1,17 @@
 package org.opencds.cqf.cql.engine.elm.execution;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.cqframework.cql.elm.execution.IdentifierRef;
 import org.opencds.cqf.cql.engine.execution.Context;
 
 public class IdentifierRefEvaluator extends IdentifierRef {
 
+    // Which value types have this identifier as a property. The variables in scope usually have the same types on
+    // every evaluation, so after the first evaluation resolution only has to consult the model for the winner.
+    private final Map<Class<?>, Boolean> pathCache = new ConcurrentHashMap<>();
+
     @Override
     protected Object internalEvaluate(Context context) {
 
@@ -14,6 +21,6 @@ public class IdentifierRefEvaluator extends IdentifierRef {
             return null;
         }
 
-        return context.resolveIdentifierRef(name);
+        return context.resolveIdentifierRef(name, pathCache);
     }
 }
@@ -34,6 +34,11 @@ If either argument is null, the result is null.
 public class InEvaluator extends org.cqframework.cql.elm.execution.In
 {
     public static Boolean in(Object left, Object right, String precision)
+    {
+        return in(left, right, precision, null);
+    }
+
+    public static Boolean in(Object left, Object right, String precision, Context context)
     {
         if (left == null )
         {
@@ -47,7 +52,7 @@ public class InEvaluator extends org.cqframework.cql.elm.execution.In
 
         if (right instanceof Iterable)
         {
-            return listIn(left, (Iterable<?>) right);
+            return listIn(left, (Iterable<?>) right, context);
         }
 
         else if (right instanceof Interval)
@@ -132,12 +137,12 @@ public class InEvaluator extends org.cqframework.cql.elm.execution.In
         return AndEvaluator.and(greaterOrEqual, lessOrEqual);
     }
 
-    private static Boolean listIn(Object left, Iterable<?> right)
+    private static Boolean listIn(Object left, Iterable<?> right, Context context)
     {
         Boolean isEqual;
         for (Object element : right)
         {
-            isEqual = EqualEvaluator.equal(left, element);
+            isEqual = EqualEvaluator.equal(left, element, context);
             if ((isEqual != null && isEqual))
             {
                 return true;
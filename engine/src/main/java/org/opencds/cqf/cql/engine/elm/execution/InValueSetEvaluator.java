@@ -4,6 +4,7 @@ import org.cqframework.cql.elm.execution.CodeSystemDef;
 import org.cqframework.cql.elm.execution.CodeSystemRef;
 import org.cqframework.cql.elm.execution.ValueSetDef;
 import org.cqframework.cql.elm.execution.ValueSetRef;
+import org.opencds.cqf.cql.engine.debug.FlightRecorderEvent;
 import org.opencds.cqf.cql.engine.exception.InvalidOperatorArgument;
 import org.opencds.cqf.cql.engine.execution.Context;
 import org.opencds.cqf.cql.engine.runtime.Code;
@@ -27,6 +28,15 @@ If the code argument is null, the result is null.
 
 public class InValueSetEvaluator extends org.cqframework.cql.elm.execution.InValueSet {
 
+    private static boolean in(TerminologyProvider provider, Code code, ValueSetInfo vsi) {
+        FlightRecorderEvent.Started event = FlightRecorderEvent.TERMINOLOGY.begin();
+        boolean result = provider.in(code, vsi);
+        if (event != null) {
+            event.commit("in", vsi.getId(), 1);
+        }
+        return result;
+    }
+
     public static Object inValueSet(Context context, Object code, Object valueset) {
 
         if (code == null) {
@@ -46,13 +56,13 @@ public class InValueSetEvaluator extends org.cqframework.cql.elm.execution.InVal
 
         // perform operation
         if (code instanceof String) {
-            if (provider.in(new Code().withCode((String)code), vsi)) {
+            if (in(provider, new Code().withCode((String)code), vsi)) {
                 return true;
             }
             return false;
         }
         else if (code instanceof Code) {
-            if (provider.in((Code)code, vsi)) {
+            if (in(provider, (Code)code, vsi)) {
                 return true;
             }
             return false;
@@ -60,7 +70,7 @@ public class InValueSetEvaluator extends org.cqframework.cql.elm.execution.InVal
         else if (code instanceof Concept) {
             for (Code codes : ((Concept)code).getCodes()) {
                 if (codes == null) return null;
-                if (provider.in(codes, vsi)) return true;
+                if (in(provider, codes, vsi)) return true;
             }
             return false;
         }
@@ -33,11 +33,15 @@ Note that the order of elements does not matter for the purposes of determining
 public class IncludedInEvaluator extends org.cqframework.cql.elm.execution.IncludedIn {
 
     public static Boolean includedIn(Object left, Object right, String precision) {
+        return includedIn(left, right, precision, null);
+    }
+
+    public static Boolean includedIn(Object left, Object right, String precision, Context context) {
         if (left instanceof Interval && right instanceof Interval) {
             return intervalIncludedIn((Interval) left, (Interval) right, precision);
         }
         if (left instanceof Iterable && right instanceof Iterable) {
-            return listIncludedIn((Iterable<?>) left, (Iterable<?>) right);
+            return listIncludedIn((Iterable<?>) left, (Iterable<?>) right, context);
         }
 
         throw new InvalidOperatorArgument(
@@ -90,6 +94,10 @@ public class IncludedInEvaluator extends org.cqframework.cql.elm.execution.Inclu
     }
 
     public static Boolean listIncludedIn(Iterable<?> left, Iterable<?> right) {
+        return listIncludedIn(left, right, null);
+    }
+
+    public static Boolean listIncludedIn(Iterable<?> left, Iterable<?> right, Context context) {
         if (left == null) {
             return true;
         }
@@ -98,7 +106,7 @@ public class IncludedInEvaluator extends org.cqframework.cql.elm.execution.Inclu
         }
 
         for (Object element : left) {
-            Object in = InEvaluator.in(element, right, null);
+            Object in = InEvaluator.in(element, right, null, context);
 
             if (in == null) continue;
 
@@ -122,15 +130,15 @@ public class IncludedInEvaluator extends org.cqframework.cql.elm.execution.Inclu
         if (left == null) {
             return right instanceof Interval
                     ? intervalIncludedIn(null, (Interval) right, precision)
-                    : listIncludedIn(null, (Iterable<?>) right);
+                    : listIncludedIn(null, (Iterable<?>) right, context);
         }
 
         if (right == null) {
             return left instanceof Interval
                     ? intervalIncludedIn((Interval) left, null, precision)
-                    : listIncludedIn((Iterable<?>) left, null);
+                    : listIncludedIn((Iterable<?>) left, null, context);
         }
 
-        return includedIn(left, right, precision);
+        return includedIn(left, right, precision, context);
     }
 }
@@ -29,8 +29,12 @@ Note that the order of elements does not matter for the purposes of determining
 public class IncludesEvaluator extends org.cqframework.cql.elm.execution.Includes {
 
     public static Boolean includes(Object left, Object right, String precision) {
+        return includes(left, right, precision, null);
+    }
+
+    public static Boolean includes(Object left, Object right, String precision, Context context) {
         try {
-            return IncludedInEvaluator.includedIn(right, left, precision);
+            return IncludedInEvaluator.includedIn(right, left, precision, context);
         }
         catch (IllegalArgumentException e) {
             throw new InvalidOperatorArgument(
@@ -53,15 +57,15 @@ public class IncludesEvaluator extends org.cqframework.cql.elm.execution.Include
         if (left == null) {
             return right instanceof Interval
                     ? IncludedInEvaluator.intervalIncludedIn((Interval) right, null, precision)
-                    : IncludedInEvaluator.listIncludedIn((Iterable<?>) right, null);
+                    : IncludedInEvaluator.listIncludedIn((Iterable<?>) right, null, context);
         }
 
         if (right == null) {
             return left instanceof Interval
                     ? IncludedInEvaluator.intervalIncludedIn(null, (Interval) left, precision)
-                    : IncludedInEvaluator.listIncludedIn(null, (Iterable<?>) left);
+                    : IncludedInEvaluator.listIncludedIn(null, (Iterable<?>) left, context);
         }
 
-        return includes(left, right, precision);
+        return includes(left, right, precision, context);
     }
 }
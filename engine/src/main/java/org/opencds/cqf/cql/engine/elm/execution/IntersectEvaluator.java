@@ -31,6 +31,11 @@ If either argument is null, the result is null.
 public class IntersectEvaluator extends org.cqframework.cql.elm.execution.Intersect
 {
     public static Object intersect(Object left, Object right)
+    {
+        return intersect(left, right, null);
+    }
+
+    public static Object intersect(Object left, Object right, Context context)
     {
         if (left == null || right == null)
         {
@@ -101,14 +106,14 @@ public class IntersectEvaluator extends org.cqframework.cql.elm.execution.Inters
             Boolean in;
             for (Object leftItem : leftArr)
             {
-                in = InEvaluator.in(leftItem, rightArr, null);
+                in = InEvaluator.in(leftItem, rightArr, null, context);
                 if (in != null && in)
                 {
                     result.add(leftItem);
                 }
             }
 
-            return DistinctEvaluator.distinct(result);
+            return DistinctEvaluator.distinct(result, context);
         }
 
         throw new InvalidOperatorArgument(
@@ -123,6 +128,6 @@ public class IntersectEvaluator extends org.cqframework.cql.elm.execution.Inters
         Object left = getOperand().get(0).evaluate(context);
         Object right = getOperand().get(1).evaluate(context);
 
-        return intersect(left, right);
+        return intersect(left, right, context);
     }
 }
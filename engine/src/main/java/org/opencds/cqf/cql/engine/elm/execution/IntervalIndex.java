@@ -0,0 +1,221 @@
+package org.opencds.cqf.cql.engine.elm.execution;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.cqframework.cql.elm.execution.Expression;
+import org.opencds.cqf.cql.engine.execution.Context;
+import org.opencds.cqf.cql.engine.execution.Variable;
+import org.opencds.cqf.cql.engine.runtime.BaseTemporal;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.runtime.Precision;
+
+/**
+ * An interval tree of rows by the value of a key expression, for conditions that can only be true when two values
+ * share a point: a point during an interval, one interval during, including, overlapping, starting or ending
+ * another. Points and intervals of Integers, Dates and DateTimes are indexed by numeric bounds; a lookup returns the
+ * rows whose bounds intersect those of the given value, in row order.
+ *
+ * Temporal bounds are widened so that the index never misses a row the condition could hold for: by the length of
+ * the value's own precision (a DateTime of day precision may be anywhere in the day), by the length of the
+ * condition's precision (comparisons truncate to it) and by two days (comparisons above day precision are made in
+ * the evaluation's offset, below it in the value's own). The condition is evaluated for every row returned, so the
+ * widening only costs candidates near the edges. Rows with null keys or keys of other types are always returned,
+ * as is every row when the looked up value is null or of another type: the list forms of the conditions can be
+ * true for a null operand (a null list is included in any list).
+ */
+class IntervalIndex implements QueryPlan.RowIndex {
+
+    private static final long DAY = 86400;
+    private static final long TEMPORAL_SLACK = 2 * DAY;
+
+    private enum Kind {
+        INTEGER,
+        DATE,
+        DATETIME
+    }
+
+    // The bounds of a key, or UNSUPPORTED for keys of other types
+    private static final class Bounds {
+        private final Kind kind;
+        private final long low;
+        private final long high;
+
+        Bounds(Kind kind, long low, long high) {
+            this.kind = kind;
+            this.low = low;
+            this.high = high;
+        }
+    }
+
+    private static final Bounds UNSUPPORTED = new Bounds(null, Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final List<Object> rows;
+    private final long precisionSlack;
+    private final Kind kind;
+    // The indexed rows sorted by low bound; maxHighs[mid] is the largest high bound of the subtree rooted at mid
+    private final long[] lows;
+    private final long[] highs;
+    private final long[] maxHighs;
+    private final int[] positions;
+    private final List<Integer> unindexedPositions = new ArrayList<>();
+
+    IntervalIndex(Context context, List<Object> rows, Variable variable, Expression key, Precision precision) {
+        this.rows = rows;
+        this.precisionSlack = precision == null ? 0 : getLength(precision);
+
+        Kind indexKind = null;
+        List<Bounds> indexed = new ArrayList<>();
+        List<Integer> indexedPositions = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            variable.setValue(rows.get(i));
+            Bounds bounds = toBounds(key.evaluate(context));
+            if (indexKind == null && bounds != null && bounds != UNSUPPORTED) {
+                indexKind = bounds.kind;
+            }
+            if (bounds == null || bounds == UNSUPPORTED || bounds.kind != indexKind) {
+                unindexedPositions.add(i);
+            }
+            else {
+                indexed.add(bounds);
+                indexedPositions.add(i);
+            }
+        }
+        this.kind = indexKind;
+
+        Integer[] order = new Integer[indexed.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(indexed.get(a).low, indexed.get(b).low));
+
+        lows = new long[order.length];
+        highs = new long[order.length];
+        maxHighs = new long[order.length];
+        positions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            lows[i] = indexed.get(order[i]).low;
+            highs[i] = indexed.get(order[i]).high;
+            positions[i] = indexedPositions.get(order[i]);
+        }
+        buildMaxHighs(0, order.length);
+    }
+
+    private long buildMaxHighs(int from, int to) {
+        if (from >= to) {
+            return Long.MIN_VALUE;
+        }
+
+        int mid = (from + to) >>> 1;
+        maxHighs[mid] = Math.max(highs[mid], Math.max(buildMaxHighs(from, mid), buildMaxHighs(mid + 1, to)));
+        return maxHighs[mid];
+    }
+
+    @Override
+    public Iterator<Object> lookup(Object value) {
+        Bounds bounds = toBounds(value);
+        if (bounds == null || bounds == UNSUPPORTED || bounds.kind != kind) {
+            return rows.iterator();
+        }
+
+        List<Integer> matches = new ArrayList<>();
+        collect(0, lows.length, bounds.low, bounds.high, matches);
+        Collections.sort(matches);
+        return new QueryPlan.MergedRows(rows, matches, unindexedPositions);
+    }
+
+    private void collect(int from, int to, long low, long high, List<Integer> matches) {
+        if (from >= to) {
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        if (maxHighs[mid] < low) {
+            return;
+        }
+
+        collect(from, mid, low, high, matches);
+        if (lows[mid] > high) {
+            return;
+        }
+
+        if (highs[mid] >= low) {
+            matches.add(positions[mid]);
+        }
+        collect(mid + 1, to, low, high, matches);
+    }
+
+    /**
+     * @return the widened bounds of a point or interval, null for null, or UNSUPPORTED
+     */
+    private Bounds toBounds(Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof Interval) {
+            Interval interval = (Interval) value;
+            Bounds low = interval.getLow() == null ? null : toBounds(interval.getLow());
+            Bounds high = interval.getHigh() == null ? null : toBounds(interval.getHigh());
+            if (low == UNSUPPORTED || high == UNSUPPORTED || (low != null && high != null && low.kind != high.kind)) {
+                return UNSUPPORTED;
+            }
+            if (low == null && high == null) {
+                // An interval of nulls has no point type to index by
+                return UNSUPPORTED;
+            }
+
+            // A null bound is either unknown or the minimum or maximum value, so the interval is unbounded there
+            return new Bounds(low != null ? low.kind : high.kind,
+                low != null ? low.low : Long.MIN_VALUE,
+                high != null ? high.high : Long.MAX_VALUE);
+        }
+
+        if (value instanceof Integer) {
+            long point = (Integer) value;
+            return new Bounds(Kind.INTEGER, point, point);
+        }
+
+        if (value instanceof DateTime) {
+            long seconds = ((DateTime) value).getDateTime().toLocalDateTime().toEpochSecond(ZoneOffset.UTC);
+            return toTemporalBounds(Kind.DATETIME, seconds, (BaseTemporal) value);
+        }
+
+        if (value instanceof Date) {
+            long seconds = ((Date) value).getDate().toEpochDay() * DAY;
+            return toTemporalBounds(Kind.DATE, seconds, (BaseTemporal) value);
+        }
+
+        return UNSUPPORTED;
+    }
+
+    private Bounds toTemporalBounds(Kind kind, long seconds, BaseTemporal value) {
+        long slack = TEMPORAL_SLACK + precisionSlack + getLength(value.getPrecision());
+        return new Bounds(kind, seconds - slack, seconds + slack);
+    }
+
+    /**
+     * @return the longest a unit of a precision can be, in seconds
+     */
+    private static long getLength(Precision precision) {
+        if (precision == null) {
+            return 366 * DAY;
+        }
+
+        switch (precision) {
+            case YEAR: return 366 * DAY;
+            case MONTH: return 31 * DAY;
+            case WEEK: return 7 * DAY;
+            case DAY: return DAY;
+            case HOUR: return 3600;
+            case MINUTE: return 60;
+            default: return 1;
+        }
+    }
+}
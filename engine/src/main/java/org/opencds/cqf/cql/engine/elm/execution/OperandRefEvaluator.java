@@ -4,8 +4,22 @@ import org.opencds.cqf.cql.engine.execution.Context;
 
 public class OperandRefEvaluator extends org.cqframework.cql.elm.execution.OperandRef {
 
+    // Set when the library is linked, see LibraryLinker
+    private int operandIndex = -1;
+
+    /**
+     * Binds this reference to the position of the operand in its function's operand list.
+     */
+    public void bind(int operandIndex) {
+        this.operandIndex = operandIndex;
+    }
+
     @Override
     protected Object internalEvaluate(Context context) {
+        if (operandIndex >= 0) {
+            return context.resolveOperand(operandIndex, this.getName());
+        }
+
         return context.resolveVariable(this.getName(), true).getValue();
     }
 }
@@ -0,0 +1,64 @@
+package org.opencds.cqf.cql.engine.elm.execution;
+
+import java.math.BigDecimal;
+
+import org.opencds.cqf.cql.engine.runtime.BaseTemporal;
+import org.opencds.cqf.cql.engine.runtime.Quantity;
+
+/**
+ * The kind of operands an arithmetic or comparison node has seen. A node starts UNSPECIALIZED, specializes to the
+ * kind of the first non-null operands it sees and from then on takes a path for that kind guarded by a type check,
+ * instead of the generic chain of instanceof checks. When the guard fails for non-null operands the node becomes
+ * GENERIC for good. A node that only ever sees one kind of operands (an age comparison, say) keeps a single
+ * monomorphic path the JIT can inline. The specialized paths give the same results as the generic ones.
+ *
+ * Nodes keep their specialization in a plain field: nodes are shared by threads, but a racing update can at worst
+ * specialize a node twice.
+ */
+enum OperandSpecialization {
+    UNSPECIALIZED,
+    INTEGER,
+    DECIMAL,
+    QUANTITY,
+    TEMPORAL,
+    GENERIC;
+
+    /**
+     * @return the specialization of a node in this state whose guard did not match the given non-null operands
+     */
+    OperandSpecialization next(Object left, Object right) {
+        if (this != UNSPECIALIZED) {
+            return GENERIC;
+        }
+
+        if (left instanceof Integer && right instanceof Integer) {
+            return INTEGER;
+        }
+
+        if (left instanceof BigDecimal && right instanceof BigDecimal) {
+            return DECIMAL;
+        }
+
+        if (left instanceof Quantity && right instanceof Quantity) {
+            return QUANTITY;
+        }
+
+        if (left instanceof BaseTemporal && (right instanceof BaseTemporal || right instanceof Quantity)) {
+            return TEMPORAL;
+        }
+
+        return GENERIC;
+    }
+
+    /**
+     * Compares quantities the way the comparison operators do.
+     * @return the comparison, or null if it is unknown
+     */
+    static Integer compare(Quantity left, Quantity right) {
+        if (left.getValue() == null || right.getValue() == null) {
+            return null;
+        }
+
+        return left.nullableCompareTo(right);
+    }
+}
@@ -30,6 +30,10 @@ Note that the order of elements does not matter for the purposes of determining
 public class ProperlyIncludedInEvaluator extends org.cqframework.cql.elm.execution.ProperIncludedIn {
 
     public static Object properlyIncludedIn(Object left, Object right, String precision) {
+        return properlyIncludedIn(left, right, precision, null);
+    }
+
+    public static Object properlyIncludedIn(Object left, Object right, String precision, Context context) {
         if (left == null && right == null) {
             return null;
         }
@@ -38,16 +42,16 @@ public class ProperlyIncludedInEvaluator extends org.cqframework.cql.elm.executi
             if (left == null) {
                 return right instanceof Interval
                         ? ProperlyIncludesEvaluator.intervalProperlyIncludes((Interval) right, null, precision)
-                        : ProperlyIncludesEvaluator.listProperlyIncludes((Iterable<?>) right, null);
+                        : ProperlyIncludesEvaluator.listProperlyIncludes((Iterable<?>) right, null, context);
             }
 
             if (right == null) {
                 return left instanceof Interval
                         ? ProperlyIncludesEvaluator.intervalProperlyIncludes(null, (Interval) left, precision)
-                        : ProperlyIncludesEvaluator.listProperlyIncludes(null, (Iterable<?>) left);
+                        : ProperlyIncludesEvaluator.listProperlyIncludes(null, (Iterable<?>) left, context);
             }
 
-            return ProperlyIncludesEvaluator.properlyIncludes(right, left, precision);
+            return ProperlyIncludesEvaluator.properlyIncludes(right, left, precision, context);
         }
         catch (InvalidOperatorArgument e) {
             throw new InvalidOperatorArgument(
@@ -63,6 +67,6 @@ public class ProperlyIncludedInEvaluator extends org.cqframework.cql.elm.executi
         Object right = getOperand().get(1).evaluate(context);
         String precision = getPrecision() != null ? getPrecision().value() : null;
 
-        return properlyIncludedIn(left, right, precision);
+        return properlyIncludedIn(left, right, precision, context);
     }
 }
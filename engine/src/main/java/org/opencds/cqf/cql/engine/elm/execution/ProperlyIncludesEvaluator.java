@@ -32,6 +32,10 @@ Note that the order of elements does not matter for the purposes of determining
 public class ProperlyIncludesEvaluator extends org.cqframework.cql.elm.execution.ProperIncludes {
 
     public static Boolean properlyIncludes(Object left, Object right, String precision) {
+        return properlyIncludes(left, right, precision, null);
+    }
+
+    public static Boolean properlyIncludes(Object left, Object right, String precision, Context context) {
         if (left == null && right == null) {
             return null;
         }
@@ -39,20 +43,20 @@ public class ProperlyIncludesEvaluator extends org.cqframework.cql.elm.execution
         if (left == null) {
             return right instanceof Interval
                     ? intervalProperlyIncludes(null, (Interval) right, precision)
-                    : listProperlyIncludes(null, (Iterable<?>) right);
+                    : listProperlyIncludes(null, (Iterable<?>) right, context);
         }
 
         if (right == null) {
             return left instanceof Interval
                     ? intervalProperlyIncludes((Interval) left, null, precision)
-                    : listProperlyIncludes((Iterable<?>) left, null);
+                    : listProperlyIncludes((Iterable<?>) left, null, context);
         }
 
         if (left instanceof Interval && right instanceof Interval) {
             return intervalProperlyIncludes((Interval) left, (Interval) right, precision);
         }
         if (left instanceof Iterable && right instanceof Iterable) {
-            return listProperlyIncludes((Iterable<?>) left, (Iterable<?>) right);
+            return listProperlyIncludes((Iterable<?>) left, (Iterable<?>) right, context);
         }
 
         throw new InvalidOperatorArgument(
@@ -89,6 +93,10 @@ public class ProperlyIncludesEvaluator extends org.cqframework.cql.elm.execution
     }
 
     public static Boolean listProperlyIncludes(Iterable<?> left, Iterable<?> right) {
+        return listProperlyIncludes(left, right, null);
+    }
+
+    public static Boolean listProperlyIncludes(Iterable<?> left, Iterable<?> right, Context context) {
         if (left == null) {
             return false;
         }
@@ -100,7 +108,7 @@ public class ProperlyIncludesEvaluator extends org.cqframework.cql.elm.execution
         }
 
         return AndEvaluator.and(
-                IncludedInEvaluator.listIncludedIn(right, left),
+                IncludedInEvaluator.listIncludedIn(right, left, context),
                 NotEqualEvaluator.notEqual(
                         leftCount,
                         (int) StreamSupport.stream(((Iterable<?>) right).spliterator(), false).count()
@@ -114,6 +122,6 @@ public class ProperlyIncludesEvaluator extends org.cqframework.cql.elm.execution
         Object right = getOperand().get(1).evaluate(context);
         String precision = getPrecision() != null ? getPrecision().value() : null;
 
-        return properlyIncludes(left, right, precision);
+        return properlyIncludes(left, right, precision, context);
     }
 }
@@ -4,19 +4,42 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.cqframework.cql.elm.execution.AliasedQuerySource;
 import org.cqframework.cql.elm.execution.ByColumn;
 import org.cqframework.cql.elm.execution.ByExpression;
+import org.cqframework.cql.elm.execution.Expression;
 import org.cqframework.cql.elm.execution.LetClause;
 import org.opencds.cqf.cql.engine.execution.Context;
 import org.opencds.cqf.cql.engine.execution.Variable;
 import org.opencds.cqf.cql.engine.runtime.CqlList;
 import org.opencds.cqf.cql.engine.runtime.Tuple;
-import org.opencds.cqf.cql.engine.runtime.iterators.QueryIterator;
 
 public class QueryEvaluator extends org.cqframework.cql.elm.execution.Query {
 
+    // Computed from the structure of the query on its first evaluation
+    private volatile QueryPlan plan;
+
+    private QueryPlan getPlan() {
+        QueryPlan result = plan;
+        if (result == null) {
+            result = QueryPlan.of(this);
+            plan = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Describes how the rows of this query are produced: for each source, whether it is filtered by conjuncts of the
+     * where clause over that source alone and whether it is hash joined to the sources before it, and for each with
+     * or without clause, whether its source is evaluated once per query and how the related rows are indexed.
+     */
+    public String describePlan() {
+        return getPlan().describe();
+    }
+
     @SuppressWarnings("unchecked")
     public Iterable<Object> ensureIterable(Object source) {
         if (source instanceof Iterable) {
@@ -36,14 +59,18 @@ public class QueryEvaluator extends org.cqframework.cql.elm.execution.Query {
         }
     }
 
-    private boolean evaluateRelationships(Context context) {
-        // TODO: This is the most naive possible implementation here, but it should perform okay with 1) caching and 2) small data sets
+    private boolean evaluateRelationships(Context context, QueryPlan.RelatedSources relatedSources) {
         boolean shouldInclude = true;
-        for (org.cqframework.cql.elm.execution.RelationshipClause relationship : getRelationship()) {
+        for (int i = 0; i < getRelationship().size(); i++) {
+            org.cqframework.cql.elm.execution.RelationshipClause relationship = getRelationship().get(i);
             boolean hasSatisfyingData = false;
-            Iterable<Object> relatedSourceData = ensureIterable(relationship.getExpression().evaluate(context));
+            // The plan evaluates a related source once per query when it does not depend on the row
+            Iterable<Object> relatedSourceData = relatedSources.getCandidates(i);
+            if (relatedSourceData == null) {
+                relatedSourceData = ensureIterable(relationship.getExpression().evaluate(context));
+            }
             for (Object relatedElement : relatedSourceData) {
-                context.push(new Variable().withName(relationship.getAlias()).withValue(relatedElement));
+                context.push(relationship.getAlias(), relatedElement);
                 try {
                     Object satisfiesRelatedCondition = relationship.getSuchThat().evaluate(context);
                     if (relationship instanceof org.cqframework.cql.elm.execution.With
@@ -71,6 +98,20 @@ public class QueryEvaluator extends org.cqframework.cql.elm.execution.Query {
     }
 
     private boolean evaluateWhere(Context context) {
+        // The plan may have filtered the sources by some conjuncts, leaving the others to test here. While
+        // debugging or profiling the whole where clause is evaluated, so that its nodes are reported.
+        List<Expression> residualConjuncts = getPlan().getResidualConjuncts();
+        if (residualConjuncts != null && !context.isInstrumented()) {
+            for (Expression conjunct : residualConjuncts) {
+                Object satisfiesCondition = conjunct.evaluate(context);
+                if (!(satisfiesCondition instanceof Boolean && (Boolean)satisfiesCondition)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
         if (getWhere() != null) {
             Object satisfiesCondition = this.getWhere().evaluate(context);
             if (!(satisfiesCondition instanceof Boolean && (Boolean)satisfiesCondition)) {
@@ -150,76 +191,164 @@ public class QueryEvaluator extends org.cqframework.cql.elm.execution.Query {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    @Override
-    protected Object internalEvaluate(Context context) {
+    /**
+     * The rows of a query, pulled one at a time through its let, relationship, where and return clauses. The
+     * sources are evaluated when the rows are opened and combined as the query's plan says; each call to hasNext()
+     * evaluates rows until one passes the query's clauses. The query's variables are pushed while a row is evaluated
+     * and popped before returning, so a consumer can stop reading at any point.
+     */
+    private class Rows implements Iterator<Object> {
+        private final Context context;
+        private final Iterator<Object> iterator;
+        private final List<Variable> variables;
+        private final List<Variable> letVariables;
+        private final QueryPlan.RelatedSources relatedSources;
+        private final boolean sourceIsList;
+        private boolean isAdvanced;
+        private boolean hasNext;
+        private Object next;
+
+        Rows(Context context, Iterator<Object> iterator, List<Variable> variables, List<Variable> letVariables,
+                QueryPlan.RelatedSources relatedSources, boolean sourceIsList) {
+            this.context = context;
+            this.iterator = iterator;
+            this.variables = variables;
+            this.letVariables = letVariables;
+            this.relatedSources = relatedSources;
+            this.sourceIsList = sourceIsList;
+        }
 
-        ArrayList<Iterator<Object>> sources = new ArrayList<Iterator<Object>>();
-        ArrayList<Variable> variables = new ArrayList<Variable>();
-        ArrayList<Variable> letVariables = new ArrayList<Variable>();
-        List<Object> result = new ArrayList<>();
-        boolean sourceIsList = false;
-        int pushCount = 0;
-        try {
-            for (AliasedQuerySource source : this.getSource()) {
-                QuerySource querySource = new QuerySource(source.getAlias(), source.getExpression().evaluate(context));
-                sources.add(querySource.getData().iterator());
-                if (querySource.getIsList()) {
-                    sourceIsList = true;
-                }
-                Variable variable = new Variable().withName(source.getAlias());
-                variables.add(variable);
-                context.push(variable);
-                pushCount++;
+        @Override
+        public boolean hasNext() {
+            if (!isAdvanced) {
+                advance();
             }
 
-            for (LetClause let : this.getLet()) {
-                Variable letVariable = new Variable().withName(let.getIdentifier());
-                letVariables.add(letVariable);
+            return hasNext;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            isAdvanced = false;
+            Object result = next;
+            next = null;
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            isAdvanced = true;
+            hasNext = false;
+            for (Variable variable : variables) {
+                context.push(variable);
+            }
+            for (Variable letVariable : letVariables) {
                 context.push(letVariable);
-                pushCount++;
             }
+            try {
+                while (iterator.hasNext()) {
+                    List<Object> elements = (List<Object>)iterator.next();
 
-            QueryIterator iterator = new QueryIterator(context, sources);
+                    // Assign range variables
+                    assignVariables(variables, elements);
 
-            while (iterator.hasNext()) {
-                List<Object> elements = (List<Object>)iterator.next();
+                    evaluateLets(context, letVariables);
 
-                // Assign range variables
-                assignVariables(variables, elements);
+                    // Evaluate relationships
+                    if (!evaluateRelationships(context, relatedSources)) {
+                        continue;
+                    }
 
-                evaluateLets(context, letVariables);
+                    if (!evaluateWhere(context)) {
+                        continue;
+                    }
 
-                // Evaluate relationships
-                if (!evaluateRelationships(context)) {
-                    continue;
+                    next = evaluateReturn(context, variables, elements);
+                    hasNext = true;
+                    return;
                 }
-
-                if (!evaluateWhere(context)) {
-                    continue;
+            }
+            finally {
+                for (int i = variables.size() + letVariables.size(); i > 0; i--) {
+                    context.pop();
                 }
-
-                result.add(evaluateReturn(context, variables, elements));
             }
         }
-        finally {
-            while (pushCount > 0) {
-                context.pop();
-                pushCount--;
+    }
+
+    private Rows openRows(Context context) {
+        ArrayList<Iterable<Object>> sources = new ArrayList<Iterable<Object>>();
+        ArrayList<Variable> variables = new ArrayList<Variable>();
+        ArrayList<Variable> letVariables = new ArrayList<Variable>();
+        boolean sourceIsList = false;
+        for (AliasedQuerySource source : this.getSource()) {
+            QuerySource querySource = new QuerySource(source.getAlias(), source.getExpression().evaluate(context));
+            sources.add(querySource.getData());
+            if (querySource.getIsList()) {
+                sourceIsList = true;
             }
+            variables.add(new Variable().withName(source.getAlias()));
+        }
+
+        for (LetClause let : this.getLet()) {
+            letVariables.add(new Variable().withName(let.getIdentifier()));
+        }
+
+        QueryPlan plan = getPlan();
+        return new Rows(context, plan.open(context, sources, variables), variables, letVariables,
+            plan.openRelatedSources(context), sourceIsList);
+    }
+
+    /**
+     * Evaluates an operand whose result is read once, in order, by a consumer that may stop early (Exists, Count,
+     * First and SingletonFrom). When the operand is a query over a list with neither a sort nor a distinct return,
+     * the result is an Iterable that evaluates each row as it is read, so rows after the last one the consumer
+     * reads are never evaluated and the result is never buffered. The Iterable must be read before anything else
+     * is evaluated in the context. Any other operand, or any operand while debugging or profiling, is evaluated as
+     * usual.
+     */
+    public static Object evaluateStreaming(Expression operand, Context context) {
+        if (!(operand instanceof QueryEvaluator) || context.isInstrumented()) {
+            return operand.evaluate(context);
+        }
+
+        QueryEvaluator query = (QueryEvaluator) operand;
+        if (query.getSort() != null || (query.getReturn() != null && query.getReturn().isDistinct())) {
+            return operand.evaluate(context);
+        }
+
+        Rows rows = query.openRows(context);
+        if (!rows.sourceIsList) {
+            // A query over single values has at most one row, and its result is that row rather than a list
+            return rows.hasNext() ? rows.next() : null;
+        }
+
+        return (Iterable<Object>) () -> rows;
+    }
+
+    @Override
+    protected Object internalEvaluate(Context context) {
+        Rows rows = openRows(context);
+        List<Object> result = new ArrayList<>();
+        while (rows.hasNext()) {
+            result.add(rows.next());
         }
 
         if (this.getReturn() != null && this.getReturn().isDistinct()) {
-            result = DistinctEvaluator.distinct(result);
+            result = DistinctEvaluator.distinct(result, context);
         }
 
         sortResult(result, context, null);
 
-        if ((result == null || result.isEmpty()) && !sourceIsList) {
+        if ((result == null || result.isEmpty()) && !rows.sourceIsList) {
             return null;
         }
 
-        return sourceIsList ? result : result.get(0);
+        return rows.sourceIsList ? result : result.get(0);
     }
 
     private void assignVariables(List<Variable> variables, List<Object> elements) {
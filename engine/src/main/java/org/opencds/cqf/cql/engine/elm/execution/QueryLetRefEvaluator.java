@@ -4,8 +4,22 @@ import org.opencds.cqf.cql.engine.execution.Context;
 
 public class QueryLetRefEvaluator extends org.cqframework.cql.elm.execution.QueryLetRef {
 
+    // Set when the library is linked, see LibraryLinker
+    private int slot = -1;
+
+    /**
+     * Binds this reference to the slot of its let in the window of the enclosing definition or function call.
+     */
+    public void bind(int slot) {
+        this.slot = slot;
+    }
+
     @Override
     public Object internalEvaluate(Context context) {
+        if (slot >= 0) {
+            return context.resolveQueryLet(slot, this.getName());
+        }
+
         return context.resolveVariable(this.getName()).getValue();
     }
 }
@@ -0,0 +1,758 @@
+package org.opencds.cqf.cql.engine.elm.execution;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.cqframework.cql.elm.execution.AliasRef;
+import org.cqframework.cql.elm.execution.AliasedQuerySource;
+import org.cqframework.cql.elm.execution.And;
+import org.cqframework.cql.elm.execution.BinaryExpression;
+import org.cqframework.cql.elm.execution.Contains;
+import org.cqframework.cql.elm.execution.DateTimePrecision;
+import org.cqframework.cql.elm.execution.Ends;
+import org.cqframework.cql.elm.execution.Equal;
+import org.cqframework.cql.elm.execution.Expression;
+import org.cqframework.cql.elm.execution.IdentifierRef;
+import org.cqframework.cql.elm.execution.In;
+import org.cqframework.cql.elm.execution.IncludedIn;
+import org.cqframework.cql.elm.execution.Includes;
+import org.cqframework.cql.elm.execution.LetClause;
+import org.cqframework.cql.elm.execution.Overlaps;
+import org.cqframework.cql.elm.execution.OverlapsAfter;
+import org.cqframework.cql.elm.execution.OverlapsBefore;
+import org.cqframework.cql.elm.execution.ProperContains;
+import org.cqframework.cql.elm.execution.ProperIn;
+import org.cqframework.cql.elm.execution.ProperIncludedIn;
+import org.cqframework.cql.elm.execution.ProperIncludes;
+import org.cqframework.cql.elm.execution.Property;
+import org.cqframework.cql.elm.execution.Query;
+import org.cqframework.cql.elm.execution.QueryLetRef;
+import org.cqframework.cql.elm.execution.RelationshipClause;
+import org.cqframework.cql.elm.execution.Starts;
+import org.opencds.cqf.cql.engine.execution.Context;
+import org.opencds.cqf.cql.engine.execution.ElmWalker;
+import org.opencds.cqf.cql.engine.execution.Variable;
+import org.opencds.cqf.cql.engine.runtime.Precision;
+import org.opencds.cqf.cql.engine.runtime.iterators.QueryIterator;
+
+/**
+ * How the rows of a query are produced. Plans depend only on the structure of the query and are computed once per
+ * query node.
+ *
+ * The where clause of a multi-source query is split into its top-level And conjuncts, and each conjunct of the form
+ * {@code left = right} where one side references only the alias of a source and the other side references only the
+ * alias of an earlier source is an equi-join. A source with an equi-join is indexed by its side of the join, once
+ * per evaluation of the query, and each combination of the earlier sources only pairs with the rows whose key
+ * matches, instead of with every row. A conjunct that references the alias of a single source, and no let of the
+ * query, is a filter of that source: it is evaluated once per element of the source, before the element is
+ * combined with any other, and only the remaining conjuncts are evaluated for each combination.
+ *
+ * The related source of a with or without clause that references neither the aliases nor the lets of the query is
+ * evaluated once per evaluation of the query rather than once per row. When its such that condition has an Equal
+ * conjunct with one side over the related alias only and the other side not over it, the related rows are indexed
+ * by their side and each row of the query is only tested against the related rows whose key matches. Failing that,
+ * a conjunct that can only be true when its operands share a point (during, includes, overlaps, starts, ends and
+ * their proper forms) indexes the related rows in an IntervalIndex, and each row is only tested against the
+ * related rows whose value could share a point with its own.
+ *
+ * An index only skips rows for which the condition is certainly not true. A hash index skips a row when both keys
+ * are Strings, Booleans, Integers, Longs or Decimals that are not Equal, or when either key is null; rows with keys
+ * of any other type (temporal values, intervals, model types) are always tested. The condition is still evaluated
+ * for every row that is not skipped, so results, and their order, are those of the nested loops.
+ */
+class QueryPlan {
+
+    // The key of a row whose key has no hashable form and so may equal any key
+    private static final Object UNHASHABLE = new Object();
+
+    /**
+     * An index of rows by the value of a key expression.
+     */
+    interface RowIndex {
+        /**
+         * @return the rows whose key could satisfy the condition the index was built for with the given value, in
+         * row order
+         */
+        Iterator<Object> lookup(Object value);
+    }
+
+    private static class Join {
+        private final Expression probeKey;
+        private final Expression buildKey;
+        // Whether the keys must share a point rather than be Equal, and the precision they are compared to
+        private final boolean isIntersection;
+        private final Precision precision;
+
+        Join(Expression probeKey, Expression buildKey) {
+            this(probeKey, buildKey, false, null);
+        }
+
+        Join(Expression probeKey, Expression buildKey, boolean isIntersection, Precision precision) {
+            this.probeKey = probeKey;
+            this.buildKey = buildKey;
+            this.isIntersection = isIntersection;
+            this.precision = precision;
+        }
+
+        RowIndex createIndex(Context context, List<Object> rows, Variable variable) {
+            return isIntersection
+                ? new IntervalIndex(context, rows, variable, buildKey, precision)
+                : new KeyIndex(context, rows, variable, buildKey);
+        }
+    }
+
+    private static class Relationship {
+        private final RelationshipClause clause;
+        private final boolean isInvariant;
+        private final Join join;
+
+        Relationship(RelationshipClause clause, boolean isInvariant, Join join) {
+            this.clause = clause;
+            this.isInvariant = isInvariant;
+            this.join = join;
+        }
+    }
+
+    // The equi-join of each source, or null when the source is paired with every combination
+    private final Join[] joins;
+    // The conjuncts of the where clause over each source alone, and the conjuncts left for each combination, or
+    // null when nothing is filtered
+    private final List<List<Expression>> filters;
+    private final List<Expression> residualConjuncts;
+    private final boolean isNestedLoop;
+    private final Relationship[] relationships;
+
+    private final List<String> aliases;
+
+    private QueryPlan(List<String> aliases, Join[] joins, List<List<Expression>> filters, List<Expression> residualConjuncts,
+            Relationship[] relationships) {
+        this.aliases = aliases;
+        this.joins = joins;
+        this.filters = filters;
+        this.residualConjuncts = residualConjuncts;
+        this.relationships = relationships;
+        boolean isNestedLoop = residualConjuncts == null;
+        for (Join join : joins) {
+            isNestedLoop = isNestedLoop && join == null;
+        }
+        this.isNestedLoop = isNestedLoop;
+    }
+
+    static QueryPlan of(Query query) {
+        List<String> aliases = new ArrayList<>();
+        for (AliasedQuerySource source : query.getSource()) {
+            aliases.add(source.getAlias());
+        }
+        Set<String> queryScopes = new HashSet<>(aliases);
+        Set<String> letNames = new HashSet<>();
+        for (LetClause let : query.getLet()) {
+            letNames.add(let.getIdentifier());
+            queryScopes.add(let.getIdentifier());
+        }
+
+        Join[] joins = new Join[aliases.size()];
+        List<List<Expression>> filters = new ArrayList<>();
+        for (int i = 0; i < aliases.size(); i++) {
+            filters.add(new ArrayList<>());
+        }
+        List<Expression> residualConjuncts = new ArrayList<>();
+        boolean hasFilter = false;
+        if (aliases.size() > 1 && query.getWhere() != null) {
+            for (Expression conjunct : getConjuncts(query.getWhere())) {
+                int source = getSingleSource(conjunct, aliases, letNames);
+                if (source >= 0) {
+                    filters.get(source).add(conjunct);
+                    hasFilter = true;
+                    continue;
+                }
+
+                residualConjuncts.add(conjunct);
+                if (!isEqual(conjunct)) {
+                    continue;
+                }
+
+                Expression left = ((Equal) conjunct).getOperand().get(0);
+                Expression right = ((Equal) conjunct).getOperand().get(1);
+                int leftSource = getSingleSource(left, aliases, letNames);
+                int rightSource = getSingleSource(right, aliases, letNames);
+                if (leftSource < 0 || rightSource < 0 || leftSource == rightSource) {
+                    continue;
+                }
+
+                int buildSource = Math.max(leftSource, rightSource);
+                if (joins[buildSource] == null) {
+                    joins[buildSource] = leftSource < rightSource ? new Join(left, right) : new Join(right, left);
+                }
+            }
+        }
+
+        Relationship[] relationships = new Relationship[query.getRelationship().size()];
+        for (int i = 0; i < relationships.length; i++) {
+            relationships[i] = planRelationship(query.getRelationship().get(i), queryScopes);
+        }
+
+        return hasFilter
+            ? new QueryPlan(aliases, joins, filters, residualConjuncts, relationships)
+            : new QueryPlan(aliases, joins, null, null, relationships);
+    }
+
+    private static Relationship planRelationship(RelationshipClause clause, Set<String> queryScopes) {
+        if (!isIndependentOf(clause.getExpression(), queryScopes)) {
+            return new Relationship(clause, false, null);
+        }
+
+        if (clause.getSuchThat() == null) {
+            return new Relationship(clause, true, null);
+        }
+
+        // An Equal conjunct makes the more selective index, so it is preferred to an interval conjunct
+        Set<String> relatedScope = Collections.singleton(clause.getAlias());
+        Join intersection = null;
+        for (Expression conjunct : getConjuncts(clause.getSuchThat())) {
+            boolean isEqual = isEqual(conjunct);
+            if (!isEqual && (intersection != null || !isIntersection(conjunct))) {
+                continue;
+            }
+
+            Expression left = ((BinaryExpression) conjunct).getOperand().get(0);
+            Expression right = ((BinaryExpression) conjunct).getOperand().get(1);
+            Join join = null;
+            if (isRelatedKey(left, clause.getAlias(), queryScopes) && isIndependentOf(right, relatedScope)) {
+                join = isEqual ? new Join(right, left) : new Join(right, left, true, getPrecision(conjunct));
+            }
+            else if (isRelatedKey(right, clause.getAlias(), queryScopes) && isIndependentOf(left, relatedScope)) {
+                join = isEqual ? new Join(left, right) : new Join(left, right, true, getPrecision(conjunct));
+            }
+
+            if (join != null && isEqual) {
+                return new Relationship(clause, true, join);
+            }
+            if (join != null) {
+                intersection = join;
+            }
+        }
+
+        return new Relationship(clause, true, intersection);
+    }
+
+    private static boolean isEqual(Expression expression) {
+        return expression instanceof Equal && ((Equal) expression).getOperand().size() == 2;
+    }
+
+    /**
+     * @return whether an expression is an interval operator that can only be true when its operands share a point
+     */
+    private static boolean isIntersection(Expression expression) {
+        return (expression instanceof In
+            || expression instanceof ProperIn
+            || expression instanceof Contains
+            || expression instanceof ProperContains
+            || expression instanceof IncludedIn
+            || expression instanceof ProperIncludedIn
+            || expression instanceof Includes
+            || expression instanceof ProperIncludes
+            || expression instanceof Overlaps
+            || expression instanceof OverlapsBefore
+            || expression instanceof OverlapsAfter
+            || expression instanceof Starts
+            || expression instanceof Ends)
+            && ((BinaryExpression) expression).getOperand().size() == 2;
+    }
+
+    private static Precision getPrecision(Expression expression) {
+        DateTimePrecision precision = null;
+        if (expression instanceof In) {
+            precision = ((In) expression).getPrecision();
+        }
+        else if (expression instanceof ProperIn) {
+            precision = ((ProperIn) expression).getPrecision();
+        }
+        else if (expression instanceof Contains) {
+            precision = ((Contains) expression).getPrecision();
+        }
+        else if (expression instanceof ProperContains) {
+            precision = ((ProperContains) expression).getPrecision();
+        }
+        else if (expression instanceof IncludedIn) {
+            precision = ((IncludedIn) expression).getPrecision();
+        }
+        else if (expression instanceof ProperIncludedIn) {
+            precision = ((ProperIncludedIn) expression).getPrecision();
+        }
+        else if (expression instanceof Includes) {
+            precision = ((Includes) expression).getPrecision();
+        }
+        else if (expression instanceof ProperIncludes) {
+            precision = ((ProperIncludes) expression).getPrecision();
+        }
+        else if (expression instanceof Overlaps) {
+            precision = ((Overlaps) expression).getPrecision();
+        }
+        else if (expression instanceof OverlapsBefore) {
+            precision = ((OverlapsBefore) expression).getPrecision();
+        }
+        else if (expression instanceof OverlapsAfter) {
+            precision = ((OverlapsAfter) expression).getPrecision();
+        }
+        else if (expression instanceof Starts) {
+            precision = ((Starts) expression).getPrecision();
+        }
+        else if (expression instanceof Ends) {
+            precision = ((Ends) expression).getPrecision();
+        }
+
+        return precision == null ? null : Precision.valueOf(precision.name());
+    }
+
+    /**
+     * @return whether an expression references the alias of a related source and none of the given scopes
+     */
+    private static boolean isRelatedKey(Expression expression, String alias, Set<String> queryScopes) {
+        Set<String> scopes = getReferencedScopes(expression);
+        return scopes != null && scopes.contains(alias) && Collections.disjoint(scopes, queryScopes);
+    }
+
+    /**
+     * @return whether an expression references none of the given scopes (and no identifier, which could resolve to
+     * any of them)
+     */
+    private static boolean isIndependentOf(Expression expression, Set<String> scopes) {
+        Set<String> referenced = getReferencedScopes(expression);
+        return referenced != null && Collections.disjoint(referenced, scopes);
+    }
+
+    /**
+     * @return the operands of the top-level Ands of an expression, left to right
+     */
+    static List<Expression> getConjuncts(Expression expression) {
+        List<Expression> conjuncts = new ArrayList<>();
+        addConjuncts(expression, conjuncts);
+        return conjuncts;
+    }
+
+    private static void addConjuncts(Expression expression, List<Expression> conjuncts) {
+        if (expression instanceof And) {
+            for (Expression operand : ((And) expression).getOperand()) {
+                addConjuncts(operand, conjuncts);
+            }
+        }
+        else {
+            conjuncts.add(expression);
+        }
+    }
+
+    /**
+     * @return the names of the aliases and query lets an expression references, including those of queries nested
+     * in it, or null if it contains an identifier reference (which is resolved against every variable in scope)
+     */
+    static Set<String> getReferencedScopes(Expression expression) {
+        Set<String> scopes = new HashSet<>();
+        boolean[] hasIdentifier = { false };
+        ElmWalker.walk(expression, node -> {
+            if (node instanceof AliasRef) {
+                scopes.add(((AliasRef) node).getName());
+            }
+            else if (node instanceof Property && ((Property) node).getScope() != null) {
+                scopes.add(((Property) node).getScope());
+            }
+            else if (node instanceof QueryLetRef) {
+                scopes.add(((QueryLetRef) node).getName());
+            }
+            else if (node instanceof IdentifierRef) {
+                hasIdentifier[0] = true;
+            }
+            return true;
+        });
+
+        return hasIdentifier[0] ? null : scopes;
+    }
+
+    /**
+     * @return the index of the only source an expression references, or -1 if it references no source, several
+     * sources, a let of the query (which depends on all of them) or an identifier
+     */
+    private static int getSingleSource(Expression expression, List<String> aliases, Set<String> letNames) {
+        Set<String> scopes = getReferencedScopes(expression);
+        if (scopes == null) {
+            return -1;
+        }
+
+        int source = -1;
+        for (String scope : scopes) {
+            if (letNames.contains(scope)) {
+                return -1;
+            }
+
+            int index = aliases.indexOf(scope);
+            if (index >= 0) {
+                if (source >= 0 && source != index) {
+                    return -1;
+                }
+                source = index;
+            }
+        }
+
+        return source;
+    }
+
+    /**
+     * @return the hashable form of a join key, which is the same for two values exactly when they are Equal, null
+     * for null, or UNHASHABLE when the value has no such form
+     */
+    private static Object toHashKey(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean || value instanceof Integer || value instanceof Long) {
+            return value;
+        }
+
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            return decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+        }
+
+        return UNHASHABLE;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> toList(Object value) {
+        if (value instanceof List) {
+            return (List<Object>) value;
+        }
+
+        List<Object> list = new ArrayList<>();
+        if (value instanceof Iterable) {
+            for (Object element : (Iterable<Object>) value) {
+                list.add(element);
+            }
+        }
+        else if (value != null) {
+            list.add(value);
+        }
+
+        return list;
+    }
+
+    /**
+     * Opens the combinations of the sources of a query, as lists of one element per source. The combinations are
+     * produced in nested loop order. While they are read, the variables of the query must be pushed on the context:
+     * the combinations are produced by binding each source's element to its variable as the loops descend, so that
+     * the keys of the equi-joins and the filters can be evaluated.
+     */
+    Iterator<Object> open(Context context, List<Iterable<Object>> sources, List<Variable> variables) {
+        if (isNestedLoop) {
+            List<Iterator<Object>> iterators = new ArrayList<>();
+            for (Iterable<Object> source : sources) {
+                iterators.add(source.iterator());
+            }
+            return new QueryIterator(context, iterators);
+        }
+
+        return new JoinIterator(context, sources, variables);
+    }
+
+    /**
+     * Describes the plan, one line per source and per with or without clause, for example
+     * {@code source C: filtered by 1 conjunct, hash join} or {@code with P: evaluated once, interval index}.
+     */
+    String describe() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < aliases.size(); i++) {
+            List<String> steps = new ArrayList<>();
+            if (filters != null && !filters.get(i).isEmpty()) {
+                int count = filters.get(i).size();
+                steps.add("filtered by " + count + (count == 1 ? " conjunct" : " conjuncts"));
+            }
+            if (joins[i] != null) {
+                steps.add("hash join");
+            }
+            lines.add("source " + aliases.get(i) + (steps.isEmpty() ? "" : ": " + String.join(", ", steps)));
+        }
+
+        for (Relationship relationship : relationships) {
+            String kind = relationship.clause instanceof org.cqframework.cql.elm.execution.Without ? "without " : "with ";
+            List<String> steps = new ArrayList<>();
+            steps.add(relationship.isInvariant ? "evaluated once" : "evaluated per row");
+            if (relationship.join != null) {
+                steps.add(relationship.join.isIntersection ? "interval index" : "hash index");
+            }
+            lines.add(kind + relationship.clause.getAlias() + ": " + String.join(", ", steps));
+        }
+
+        return String.join("\n", lines);
+    }
+
+    /**
+     * @return the conjuncts of the where clause a combination of the sources must satisfy, or null if it must
+     * satisfy the where clause as a whole; either way, the where clause is true exactly when every conjunct is
+     */
+    List<Expression> getResidualConjuncts() {
+        return residualConjuncts;
+    }
+
+    private static boolean isTrue(Object value) {
+        return value instanceof Boolean && (Boolean) value;
+    }
+
+    /**
+     * Opens the related sources of the with and without clauses of a query for one evaluation of the query.
+     */
+    RelatedSources openRelatedSources(Context context) {
+        return new RelatedSources(context);
+    }
+
+    /**
+     * The related rows of the with and without clauses of one evaluation of a query. Invariant related sources are
+     * evaluated, and indexed, when they are first needed.
+     */
+    class RelatedSources {
+        private final Context context;
+        private final List<List<Object>> rows;
+        private final List<RowIndex> indexes;
+
+        RelatedSources(Context context) {
+            this.context = context;
+            this.rows = new ArrayList<>(Collections.nCopies(relationships.length, null));
+            this.indexes = new ArrayList<>(Collections.nCopies(relationships.length, null));
+        }
+
+        /**
+         * @return the related rows of the relationship at the given index that could satisfy its condition for the
+         * current row of the query, or null if its source depends on the row and must be evaluated for it
+         */
+        Iterable<Object> getCandidates(int index) {
+            Relationship relationship = relationships[index];
+            if (!relationship.isInvariant) {
+                return null;
+            }
+
+            List<Object> related = rows.get(index);
+            if (related == null) {
+                related = toList(relationship.clause.getExpression().evaluate(context));
+                rows.set(index, related);
+                if (relationship.join != null) {
+                    Variable variable = new Variable().withName(relationship.clause.getAlias());
+                    context.push(variable);
+                    try {
+                        indexes.set(index, relationship.join.createIndex(context, related, variable));
+                    }
+                    finally {
+                        context.pop();
+                    }
+                }
+            }
+
+            if (relationship.join == null) {
+                return related;
+            }
+
+            Iterator<Object> candidates = indexes.get(index).lookup(relationship.join.probeKey.evaluate(context));
+            return () -> candidates;
+        }
+    }
+
+    /**
+     * A hash index of rows by the value of a key expression, evaluated with each row bound to a variable.
+     */
+    private static class KeyIndex implements RowIndex {
+        private final List<Object> rows;
+        private final Map<Object, List<Integer>> positions = new HashMap<>();
+        private final List<Integer> unhashablePositions = new ArrayList<>();
+
+        KeyIndex(Context context, List<Object> rows, Variable variable, Expression key) {
+            this.rows = rows;
+            for (int i = 0; i < rows.size(); i++) {
+                variable.setValue(rows.get(i));
+                Object hashKey = toHashKey(key.evaluate(context));
+                if (hashKey == UNHASHABLE) {
+                    unhashablePositions.add(i);
+                }
+                else if (hashKey != null) {
+                    positions.computeIfAbsent(hashKey, k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        @Override
+        public Iterator<Object> lookup(Object value) {
+            Object hashKey = toHashKey(value);
+            if (hashKey == null) {
+                // Equal is null, so not true, for every row
+                return Collections.emptyIterator();
+            }
+
+            if (hashKey == UNHASHABLE) {
+                return rows.iterator();
+            }
+
+            return new MergedRows(rows, positions.getOrDefault(hashKey, Collections.emptyList()), unhashablePositions);
+        }
+    }
+
+    private class JoinIterator implements Iterator<Object> {
+        private final Context context;
+        private final List<Iterable<Object>> sources;
+        private final List<Variable> variables;
+        private final List<Object> elements;
+        private final List<List<Object>> rows;
+        private final List<RowIndex> indexes;
+        private final List<Iterator<Object>> cursors;
+        private boolean isStarted;
+        private boolean isAdvanced;
+        private boolean hasNext;
+
+        JoinIterator(Context context, List<Iterable<Object>> sources, List<Variable> variables) {
+            this.context = context;
+            this.sources = sources;
+            this.variables = variables;
+            this.elements = new ArrayList<>(Collections.nCopies(sources.size(), null));
+            this.rows = new ArrayList<>(Collections.nCopies(sources.size(), null));
+            this.indexes = new ArrayList<>(Collections.nCopies(sources.size(), null));
+            this.cursors = new ArrayList<>(Collections.nCopies(sources.size(), null));
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!isAdvanced) {
+                hasNext = advance();
+                isAdvanced = true;
+            }
+
+            return hasNext;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            isAdvanced = false;
+            return elements;
+        }
+
+        private boolean advance() {
+            int last = sources.size() - 1;
+            int level;
+            if (!isStarted) {
+                isStarted = true;
+                cursors.set(0, sources.get(0).iterator());
+                level = 0;
+            }
+            else {
+                level = last;
+            }
+
+            while (level >= 0) {
+                Iterator<Object> cursor = cursors.get(level);
+                if (!cursor.hasNext()) {
+                    level--;
+                    continue;
+                }
+
+                Object element = cursor.next();
+                elements.set(level, element);
+                variables.get(level).setValue(element);
+                // The other sources are filtered as they are read into rows
+                if (level == 0 && !passesFilters(0)) {
+                    continue;
+                }
+                if (level == last) {
+                    return true;
+                }
+
+                level++;
+                cursors.set(level, openLevel(level));
+            }
+
+            return false;
+        }
+
+        private Iterator<Object> openLevel(int level) {
+            List<Object> levelRows = rows.get(level);
+            if (levelRows == null) {
+                levelRows = toList(sources.get(level));
+                if (filters != null && !filters.get(level).isEmpty()) {
+                    List<Object> filteredRows = new ArrayList<>();
+                    for (Object element : levelRows) {
+                        variables.get(level).setValue(element);
+                        if (passesFilters(level)) {
+                            filteredRows.add(element);
+                        }
+                    }
+                    levelRows = filteredRows;
+                }
+                rows.set(level, levelRows);
+            }
+
+            Join join = joins[level];
+            if (join == null) {
+                return levelRows.iterator();
+            }
+
+            RowIndex index = indexes.get(level);
+            if (index == null) {
+                index = join.createIndex(context, levelRows, variables.get(level));
+                indexes.set(level, index);
+            }
+
+            return index.lookup(join.probeKey.evaluate(context));
+        }
+
+        private boolean passesFilters(int level) {
+            if (filters == null) {
+                return true;
+            }
+
+            for (Expression filter : filters.get(level)) {
+                if (!isTrue(filter.evaluate(context))) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * The rows at two ascending lists of positions, in row order.
+     */
+    static class MergedRows implements Iterator<Object> {
+        private final List<Object> rows;
+        private final List<Integer> first;
+        private final List<Integer> second;
+        private int firstIndex;
+        private int secondIndex;
+
+        MergedRows(List<Object> rows, List<Integer> first, List<Integer> second) {
+            this.rows = rows;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return firstIndex < first.size() || secondIndex < second.size();
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            if (secondIndex >= second.size()
+                || (firstIndex < first.size() && first.get(firstIndex) < second.get(secondIndex))) {
+                return rows.get(first.get(firstIndex++));
+            }
+
+            return rows.get(second.get(secondIndex++));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.opencds.cqf.cql.engine.elm.execution;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import javax.xml.namespace.QName;
@@ -8,6 +9,7 @@ import javax.xml.namespace.QName;
 import org.cqframework.cql.elm.execution.ValueSetDef;
 import org.cqframework.cql.elm.execution.ValueSetRef;
 import org.opencds.cqf.cql.engine.data.DataProvider;
+import org.opencds.cqf.cql.engine.debug.FlightRecorderEvent;
 import org.opencds.cqf.cql.engine.execution.Context;
 import org.opencds.cqf.cql.engine.runtime.Code;
 import org.opencds.cqf.cql.engine.runtime.Concept;
@@ -57,10 +59,21 @@ public class RetrieveEvaluator extends org.cqframework.cql.elm.execution.Retriev
             dateRange = (Interval)this.getDateRange().evaluate(context);
         }
 
+        FlightRecorderEvent.Started event = FlightRecorderEvent.RETRIEVE.begin();
 		Object result = dataProvider.retrieve(context.getCurrentContext(), (String)dataProvider.getContextPath(context.getCurrentContext(), dataType.getLocalPart()),
 				context.getCurrentContextValue(), dataType.getLocalPart(), getTemplateId(),
                 getCodeProperty(), codes, valueSet, getDateProperty(), getDateLowProperty(), getDateHighProperty(), dateRange);
 
+        if (event != null) {
+            int codeCount = 0;
+            if (codes != null) {
+                for (Code code : codes) {
+                    codeCount++;
+                }
+            }
+            event.commit(dataType.getLocalPart(), codeCount, valueSet, getResultSize(result));
+        }
+
         //append list results to evaluatedResources list
         if (result instanceof List) {
             for (Object element : (List<?>)result) {
@@ -73,4 +86,25 @@ public class RetrieveEvaluator extends org.cqframework.cql.elm.execution.Retriev
 
         return result;
     }
+
+    private static int getResultSize(Object result) {
+        if (result == null) {
+            return 0;
+        }
+
+        if (result instanceof Collection) {
+            return ((Collection<?>)result).size();
+        }
+
+        if (result instanceof Iterable) {
+            // Providers may return lazy results, so this is only done when the event is recorded
+            int size = 0;
+            for (Object element : (Iterable<?>)result) {
+                size++;
+            }
+            return size;
+        }
+
+        return 1;
+    }
 }
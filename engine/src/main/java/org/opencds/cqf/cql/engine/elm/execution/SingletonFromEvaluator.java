@@ -43,7 +43,7 @@ public class SingletonFromEvaluator extends org.cqframework.cql.elm.execution.Si
 
     @Override
     protected Object internalEvaluate(Context context) {
-        Object operand = getOperand().evaluate(context);
+        Object operand = QueryEvaluator.evaluateStreaming(getOperand(), context);
         return singletonFrom(operand);
     }
 }
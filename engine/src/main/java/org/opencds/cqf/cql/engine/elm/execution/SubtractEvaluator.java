@@ -62,6 +62,37 @@ NOTE: see note in AddEvaluator
 
 public class SubtractEvaluator extends org.cqframework.cql.elm.execution.Subtract {
 
+    // See OperandSpecialization
+    private OperandSpecialization specialization = OperandSpecialization.UNSPECIALIZED;
+
+    private static Object subtractFromTemporal(BaseTemporal left, Quantity right) {
+        Precision precision = Precision.fromString(right.getUnit());
+        int valueToSubtract = right.getValue().intValue();
+
+        // +(DateTime, Quantity)
+        if (left instanceof DateTime) {
+            if (precision == Precision.WEEK) {
+                valueToSubtract = TemporalHelper.weeksToDays(valueToSubtract);
+                precision = Precision.DAY;
+            }
+
+            return new DateTime(((DateTime) left).getDateTime().minus(valueToSubtract, precision.toChronoUnit()), ((DateTime) left).getPrecision());
+        }
+        // +(Date, Quantity)
+        else if (left instanceof Date) {
+            if (precision == Precision.WEEK) {
+                valueToSubtract = TemporalHelper.weeksToDays(valueToSubtract);
+                precision = Precision.DAY;
+            }
+
+            return new Date(((Date) left).getDate().minus(valueToSubtract, precision.toChronoUnit())).setPrecision(((Date) left).getPrecision());
+        }
+        // +(Time, Quantity)
+        else {
+            return new Time(((Time) left).getTime().minus(valueToSubtract, precision.toChronoUnit()), ((Time) left).getPrecision());
+        }
+    }
+
     public static Object subtract(Object left, Object right) {
         if (left == null || right == null) {
             return null;
@@ -84,31 +115,7 @@ public class SubtractEvaluator extends org.cqframework.cql.elm.execution.Subtrac
 
         // -(DateTime, Quantity)
         else if (left instanceof BaseTemporal && right instanceof Quantity) {
-            Precision precision = Precision.fromString(((Quantity) right).getUnit());
-            int valueToSubtract = ((Quantity) right).getValue().intValue();
-
-            // +(DateTime, Quantity)
-            if (left instanceof DateTime) {
-                if (precision == Precision.WEEK) {
-                    valueToSubtract = TemporalHelper.weeksToDays(valueToSubtract);
-                    precision = Precision.DAY;
-                }
-
-                return new DateTime(((DateTime) left).getDateTime().minus(valueToSubtract, precision.toChronoUnit()), ((DateTime) left).getPrecision());
-            }
-            // +(Date, Quantity)
-            else if (left instanceof Date) {
-                if (precision == Precision.WEEK) {
-                    valueToSubtract = TemporalHelper.weeksToDays(valueToSubtract);
-                    precision = Precision.DAY;
-                }
-
-                return new Date(((Date) left).getDate().minus(valueToSubtract, precision.toChronoUnit())).setPrecision(((Date) left).getPrecision());
-            }
-            // +(Time, Quantity)
-            else {
-                return new Time(((Time) left).getTime().minus(valueToSubtract, precision.toChronoUnit()), ((Time) left).getPrecision());
-            }
+            return subtractFromTemporal((BaseTemporal) left, (Quantity) right);
         }
 
         else if (left instanceof Interval && right instanceof Interval) {
@@ -127,6 +134,35 @@ public class SubtractEvaluator extends org.cqframework.cql.elm.execution.Subtrac
     protected Object internalEvaluate(Context context) {
         Object left = getOperand().get(0).evaluate(context);
         Object right = getOperand().get(1).evaluate(context);
+
+        if (left != null && right != null) {
+            switch (specialization) {
+                case INTEGER:
+                    if (left instanceof Integer && right instanceof Integer) {
+                        return (Integer) left - (Integer) right;
+                    }
+                    break;
+                case DECIMAL:
+                    if (left instanceof BigDecimal && right instanceof BigDecimal) {
+                        return ((BigDecimal) left).subtract((BigDecimal) right);
+                    }
+                    break;
+                case QUANTITY:
+                    if (left instanceof Quantity && right instanceof Quantity) {
+                        return new Quantity().withValue((((Quantity) left).getValue()).subtract(((Quantity) right).getValue())).withUnit(((Quantity) left).getUnit());
+                    }
+                    break;
+                case TEMPORAL:
+                    if (left instanceof BaseTemporal && right instanceof Quantity) {
+                        return subtractFromTemporal((BaseTemporal) left, (Quantity) right);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            specialization = specialization.next(left, right);
+        }
+
         return subtract(left, right);
     }
 }
@@ -31,6 +31,10 @@ Note that the union operator can also be invoked with the symbolic operator (|).
 public class UnionEvaluator extends org.cqframework.cql.elm.execution.Union {
 
     public static Object union(Object left, Object right) {
+        return union(left, right, null);
+    }
+
+    public static Object union(Object left, Object right, Context context) {
         if (left == null || right == null) {
             return null;
         }
@@ -76,7 +80,7 @@ public class UnionEvaluator extends org.cqframework.cql.elm.execution.Union {
             for (Object rightElement : (Iterable<?>)right) {
                 result.add(rightElement);
             }
-            return DistinctEvaluator.distinct(result);
+            return DistinctEvaluator.distinct(result, context);
         }
 
         throw new InvalidOperatorArgument(
@@ -89,6 +93,6 @@ public class UnionEvaluator extends org.cqframework.cql.elm.execution.Union {
     protected Object internalEvaluate(Context context) {
         Object left = getOperand().get(0).evaluate(context);
         Object right = getOperand().get(1).evaluate(context);
-        return union(left, right);
+        return union(left, right, context);
     }
 }
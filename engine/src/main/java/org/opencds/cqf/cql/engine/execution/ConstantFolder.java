@@ -0,0 +1,163 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.math.BigDecimal;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.cqframework.cql.elm.execution.AliasRef;
+import org.cqframework.cql.elm.execution.AnyInCodeSystem;
+import org.cqframework.cql.elm.execution.AnyInValueSet;
+import org.cqframework.cql.elm.execution.CalculateAge;
+import org.cqframework.cql.elm.execution.CodeSystemRef;
+import org.cqframework.cql.elm.execution.Convert;
+import org.cqframework.cql.elm.execution.ConvertsToDateTime;
+import org.cqframework.cql.elm.execution.Current;
+import org.cqframework.cql.elm.execution.DateTime;
+import org.cqframework.cql.elm.execution.Expression;
+import org.cqframework.cql.elm.execution.ExpressionRef;
+import org.cqframework.cql.elm.execution.IdentifierRef;
+import org.cqframework.cql.elm.execution.InCodeSystem;
+import org.cqframework.cql.elm.execution.InValueSet;
+import org.cqframework.cql.elm.execution.Instance;
+import org.cqframework.cql.elm.execution.Iteration;
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.Null;
+import org.cqframework.cql.elm.execution.OperandRef;
+import org.cqframework.cql.elm.execution.ParameterRef;
+import org.cqframework.cql.elm.execution.Property;
+import org.cqframework.cql.elm.execution.QueryLetRef;
+import org.cqframework.cql.elm.execution.Retrieve;
+import org.cqframework.cql.elm.execution.SubsumedBy;
+import org.cqframework.cql.elm.execution.Subsumes;
+import org.cqframework.cql.elm.execution.ToDateTime;
+import org.cqframework.cql.elm.execution.Total;
+import org.cqframework.cql.elm.execution.ValueSetRef;
+import org.opencds.cqf.cql.engine.elm.execution.ConstantEvaluator;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Concept;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.runtime.Time;
+
+/**
+ * Replaces the expressions of a library whose value cannot change between evaluations with ConstantEvaluator
+ * nodes holding the value, so that literal arithmetic, selectors over literals, code and concept references and
+ * conversions of literals are evaluated once when the library is loaded.
+ *
+ * An expression is constant when it and everything below it depend on nothing but the library: no references to
+ * definitions, parameters, operands, aliases or query scopes, no retrieves or terminology, nothing that reads the
+ * clock or the evaluation's timezone offset (Now, Today, TimeOfDay, CalculateAge, DateTime without an offset and
+ * conversions to DateTime), no Message and no Instance. Libraries are shared by evaluations with different
+ * parameters, so expressions over parameters are not folded (a batch shares those through SharedExpressionCache).
+ *
+ * Only the largest constant expressions are folded, and only when their value is immutable: lists, tuples and
+ * quantities are left in place (some operators update quantities in place), but their constant parts are folded.
+ * An expression that fails to evaluate is left in place to fail when it is evaluated.
+ */
+public class ConstantFolder {
+
+    private ConstantFolder() {
+    }
+
+    /**
+     * Folds the constant expressions of a library in place.
+     * @param libraryLoader resolves the libraries included by the library, for references into them
+     * @return the number of expressions replaced
+     */
+    public static int fold(Library library, LibraryLoader libraryLoader) {
+        Map<Object, Boolean> constants = new IdentityHashMap<>();
+        isConstant(library, constants);
+
+        // Creating a Context binds it to the thread, so restore the caller's afterwards
+        Context previous = Context.getContext();
+        try {
+            Context context = new Context(library);
+            context.registerLibraryLoader(libraryLoader);
+
+            int[] count = { 0 };
+            foldChildren(library, context, constants, count);
+            return count[0];
+        }
+        finally {
+            Context.setContext(previous);
+        }
+    }
+
+    private static boolean isConstant(Object node, Map<Object, Boolean> constants) {
+        boolean isConstant = !isVarying(node);
+        for (Object child : ElmWalker.getChildren(node)) {
+            // Every child is visited, so that the constant parts of varying expressions can still be folded
+            isConstant &= isConstant(child, constants);
+        }
+
+        constants.put(node, isConstant);
+        return isConstant;
+    }
+
+    private static void foldChildren(Object node, Context context, Map<Object, Boolean> constants, int[] count) {
+        ElmWalker.replaceChildren(node, child -> {
+            if (child instanceof Expression && !(child instanceof ConstantEvaluator) && !(child instanceof Null)
+                && Boolean.TRUE.equals(constants.get(child))) {
+                try {
+                    Object value = ((Expression) child).evaluate(context);
+                    if (isImmutable(value)) {
+                        count[0]++;
+                        return new ConstantEvaluator((Expression) child, value);
+                    }
+                }
+                catch (RuntimeException e) {
+                    // Left in place to fail when it is evaluated
+                }
+            }
+
+            foldChildren(child, context, constants, count);
+            return child;
+        });
+    }
+
+    private static boolean isVarying(Object node) {
+        return SharedExpressionCache.isContextDependent(node)
+            || node instanceof Retrieve
+            || node instanceof ExpressionRef
+            || node instanceof ParameterRef
+            || node instanceof OperandRef
+            || node instanceof AliasRef
+            || node instanceof IdentifierRef
+            || node instanceof QueryLetRef
+            || node instanceof Current
+            || node instanceof Iteration
+            || node instanceof Total
+            || (node instanceof Property && ((Property) node).getScope() != null)
+            || node instanceof ValueSetRef
+            || node instanceof CodeSystemRef
+            || node instanceof InValueSet
+            || node instanceof InCodeSystem
+            || node instanceof AnyInValueSet
+            || node instanceof AnyInCodeSystem
+            || node instanceof Subsumes
+            || node instanceof SubsumedBy
+            || node instanceof CalculateAge
+            || node instanceof Instance
+            || node instanceof ToDateTime
+            || node instanceof ConvertsToDateTime
+            || node instanceof Convert
+            || (node instanceof DateTime && ((DateTime) node).getTimezoneOffset() == null);
+    }
+
+    private static boolean isImmutable(Object value) {
+        if (value instanceof Interval) {
+            return isImmutable(((Interval) value).getLow()) && isImmutable(((Interval) value).getHigh());
+        }
+
+        return value == null
+            || value instanceof Boolean
+            || value instanceof Integer
+            || value instanceof Long
+            || value instanceof BigDecimal
+            || value instanceof String
+            || value instanceof Code
+            || value instanceof Concept
+            || value instanceof org.opencds.cqf.cql.engine.runtime.Date
+            || value instanceof org.opencds.cqf.cql.engine.runtime.DateTime
+            || value instanceof Time;
+    }
+}
@@ -6,14 +6,17 @@ import static org.opencds.cqf.cql.engine.execution.NamespaceHelper.getUriPart;
 import java.time.OffsetDateTime;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 import javax.xml.namespace.QName;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.cqframework.cql.elm.execution.ChoiceTypeSpecifier;
 import org.cqframework.cql.elm.execution.CodeDef;
 import org.cqframework.cql.elm.execution.CodeSystemDef;
@@ -38,8 +41,10 @@ import org.opencds.cqf.cql.engine.data.DataProvider;
 import org.opencds.cqf.cql.engine.data.ExternalFunctionProvider;
 import org.opencds.cqf.cql.engine.data.SystemDataProvider;
 import org.opencds.cqf.cql.engine.debug.DebugAction;
+import org.opencds.cqf.cql.engine.debug.DebugActionTable;
 import org.opencds.cqf.cql.engine.debug.DebugMap;
 import org.opencds.cqf.cql.engine.debug.DebugResult;
+import org.opencds.cqf.cql.engine.debug.Profiler;
 import org.opencds.cqf.cql.engine.debug.SourceLocator;
 import org.opencds.cqf.cql.engine.elm.execution.Executable;
 import org.opencds.cqf.cql.engine.exception.CqlException;
@@ -48,8 +53,10 @@ import org.opencds.cqf.cql.engine.runtime.DateTime;
 import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
 
 /**
- * NOTE: This class is thread-affine; it uses thread local storage to allow statics throughout the code base to access
- * the context (such as equal and equivalent evaluators).
+ * NOTE: A Context is not thread-safe, but it is not bound to a thread either. Evaluators pass the context explicitly
+ * to the static helpers that need it (such as the equal and equivalent evaluators). The thread local below is only
+ * a compatibility fallback for statics that are called without a context (such as the runtime types); use
+ * setContext() to rebind it when an evaluation continues on a thread other than the one that created the context.
  */
 
 public class Context {
@@ -59,24 +66,22 @@ public class Context {
         return threadContext.get();
     }
 
-    private boolean enableExpressionCache = false;
-
-    @SuppressWarnings("serial")
-    private LinkedHashMap<VersionedIdentifier, LinkedHashMap<String, Object>> expressions = new LinkedHashMap<VersionedIdentifier, LinkedHashMap<String, Object>>(10, 0.9f, true) {
-        protected boolean removeEldestEntry(Map.Entry<VersionedIdentifier, LinkedHashMap<String, Object>> eldestEntry) {
-            return size() > 10;
+    public static void setContext(Context context) {
+        if (context == null) {
+            threadContext.remove();
+        }
+        else {
+            threadContext.set(context);
         }
-    };
-
-    @SuppressWarnings("serial")
-    private LinkedHashMap<String, Object> constructLibraryExpressionHashMap() {
-        return  new LinkedHashMap<String, Object>(15, 0.9f, true) {
-            protected boolean removeEldestEntry(Map.Entry<String, Object> eldestEntry) {
-                return size() > 15;
-            }
-        };
     }
 
+    private boolean enableExpressionCache = false;
+
+    private ExpressionCache expressionCache = ExpressionCache.unbounded();
+    private SharedExpressionCache sharedExpressionCache;
+    private SharedExpressionCache parallelExpressionCache;
+    private FunctionMemo functionMemo;
+
     private List<Object> evaluatedResources = new ArrayList<>();
     public List<Object> getEvaluatedResources() {
         return evaluatedResources;
@@ -89,9 +94,18 @@ public class Context {
     private Map<String, Object> parameters = new HashMap<>();
     private Stack<String> currentContext = new Stack<>();
     private Map<String, Object> contextValues = new HashMap<>();
-    private Stack<Stack<Variable> > windows = new Stack<>();
+
+    // Variables live in a single array-backed stack. A window (one per function call) is the part of the stack from
+    // its entry in windowStarts to the top. The context keeps a Variable per slot that push(String, Object) reuses,
+    // so binding a query alias or a function operand does not allocate.
+    private Variable[] variables = new Variable[32];
+    private Variable[] slotVariables = new Variable[32];
+    private int variableCount = 0;
+    private int[] windowStarts = new int[8];
+    private int windowCount = 0;
     private Map<String, Library> libraries = new HashMap<>();
     private Stack<Library> currentLibrary = new Stack<>();
+    private Map<Library, LibraryIndex> libraryIndexes = new IdentityHashMap<>();
     private LibraryLoader libraryLoader;
 
     private ZonedDateTime evaluationZonedDateTime;
@@ -107,6 +121,36 @@ public class Context {
 
     public void setDebugMap(DebugMap debugMap) {
         this.debugMap = debugMap;
+        this.debugActionLibrary = null;
+        updateInstrumented();
+    }
+
+    // The action table and coverage bitmap of the library last asked about, which is usually the current library
+    private Library debugActionLibrary;
+    private DebugActionTable debugActionTable;
+    private BitSet debugCoverage;
+
+    // Whether nodes need to be reported to the debug map or profiler, checked by Executable.evaluate() for every node
+    private boolean isInstrumented;
+    public boolean isInstrumented() {
+        return this.isInstrumented;
+    }
+
+    private void updateInstrumented() {
+        this.isInstrumented = this.debugMap != null || this.profiler != null;
+    }
+
+    private Profiler profiler;
+    public Profiler getProfiler() {
+        return this.profiler;
+    }
+
+    /**
+     * Sets the profiler that collects the cost of each node evaluated in this context, or null to stop profiling.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+        updateInstrumented();
     }
 
     private DebugResult debugResult;
@@ -127,7 +171,29 @@ public class Context {
             return DebugAction.NONE;
         }
 
-        return debugMap.shouldDebug(node, this.getCurrentLibrary());
+        Library library = this.getCurrentLibrary();
+        if (library != this.debugActionLibrary) {
+            this.debugActionLibrary = library;
+            this.debugActionTable = debugMap.getActionTable(library);
+            this.debugCoverage = null;
+        }
+
+        int index = this.debugActionTable.indexOf(node);
+        if (index < 0) {
+            // Not part of the library's tree, such as a node created while evaluating
+            return debugMap.shouldDebug(node, library);
+        }
+
+        if (this.debugActionTable.isCoverageOnly(index)) {
+            if (this.debugCoverage == null) {
+                ensureDebugResult();
+                this.debugCoverage = debugResult.getCoverage(library, this.debugActionTable);
+            }
+            this.debugCoverage.set(index);
+            return DebugAction.NONE;
+        }
+
+        return this.debugActionTable.getAction(index);
     }
 
     private void ensureDebugResult() {
@@ -181,6 +247,41 @@ public class Context {
         init(library, systemDataProvider);
     }
 
+    private Context(Context parent) {
+        pushWindow();
+        this.enableExpressionCache = parent.enableExpressionCache;
+        this.sharedExpressionCache = parent.sharedExpressionCache;
+        this.parallelExpressionCache = parent.parallelExpressionCache;
+        this.functionMemo = parent.functionMemo != null ? new FunctionMemo(parent.functionMemo.getMaximumSize()) : null;
+        this.profiler = parent.profiler != null ? new Profiler() : null;
+        updateInstrumented();
+        this.parameters = new HashMap<>(parent.parameters);
+        this.currentContext.addAll(parent.currentContext);
+        this.contextValues = new HashMap<>(parent.contextValues);
+        this.libraries = new HashMap<>(parent.libraries);
+        this.currentLibrary.push(parent.getRootLibrary());
+        this.libraryIndexes = new IdentityHashMap<>(parent.libraryIndexes);
+        this.libraryLoader = parent.libraryLoader;
+        this.evaluationZonedDateTime = parent.evaluationZonedDateTime;
+        this.evaluationOffsetDateTime = parent.evaluationOffsetDateTime;
+        this.evaluationDateTime = parent.evaluationDateTime;
+        this.ucumService = parent.ucumService;
+        this.dataProviders = new HashMap<>(parent.dataProviders);
+        this.packageMap = new HashMap<>(parent.packageMap);
+        this.terminologyProvider = parent.terminologyProvider;
+        this.externalFunctionProviders = new HashMap<>(parent.externalFunctionProviders);
+    }
+
+    /**
+     * Creates a context for evaluating definitions of this context's evaluation on another thread. The fork has the
+     * same library, providers, parameters, context values, evaluation date/time and shared caches, but its own
+     * variables, per-context expression cache, evaluated resources and profiler (if this context has one).
+     * Debugging is not carried over.
+     */
+    public Context fork() {
+        return new Context(this);
+    }
+
     private void init(Library library, DataProvider systemDataProvider) {
         pushWindow();
         registerDataProvider("urn:hl7-org:elm-types:r1", systemDataProvider);
@@ -188,12 +289,84 @@ public class Context {
         if (library.getIdentifier() != null)
             libraries.put(library.getIdentifier().getId(), library);
         currentLibrary.push(library);
-        try {
-            ucumService = new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
-        } catch (UcumException ue) {
-            ucumService = null;
+        ucumService = UcumServiceHolder.INSTANCE;
+        threadContext.set(this);
+    }
+
+    // Parsing the UCUM essence is expensive and the resulting service is only ever read, so all contexts share one
+    private static class UcumServiceHolder {
+        private static final UcumService INSTANCE = createUcumService();
+
+        private static UcumService createUcumService() {
+            try {
+                return new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
+            } catch (UcumException ue) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Prepares this context for another evaluation of the same library. Everything specific to an evaluation
+     * (context values, parameters, cached expression results, the variable and library stacks, evaluated
+     * resources, debug results and profile) is discarded and the evaluation date/time is reset to now. Registered
+     * providers, resolved included libraries and their indexes are kept.
+     */
+    public void reset(Pair<String, Object> contextParameter, Map<String, Object> parameters) {
+        this.expressionCache.clear();
+        this.expressionCache.resetStatistics();
+        this.sharedExpressionCache = null;
+        this.parallelExpressionCache = null;
+        if (this.functionMemo != null) {
+            this.functionMemo.clear();
+            this.functionMemo.resetStatistics();
+        }
+        this.evaluatedResources = new ArrayList<>();
+        this.parameters.clear();
+        this.currentContext.clear();
+        this.contextValues.clear();
+        while (this.variableCount > 0) {
+            this.variableCount--;
+            clearSlot(this.variableCount);
+        }
+        this.windowCount = 0;
+        pushWindow();
+        while (this.currentLibrary.size() > 1) {
+            this.currentLibrary.pop();
+        }
+        this.debugResult = null;
+        this.debugActionLibrary = null;
+        if (this.profiler != null) {
+            this.profiler.reset();
         }
+        setEvaluationDateTime(ZonedDateTime.now());
         threadContext.set(this);
+
+        if (contextParameter != null) {
+            setContextValue(contextParameter.getLeft(), contextParameter.getRight());
+        }
+
+        if (parameters != null) {
+            setParameters(getCurrentLibrary(), parameters);
+        }
+    }
+
+    /**
+     * Sets the given parameter values for the library and for each of the libraries it includes.
+     */
+    public void setParameters(Library library, Map<String, Object> parameters) {
+        for (Map.Entry<String, Object> parameterValue : parameters.entrySet()) {
+            setParameter(library.getLocalId(), parameterValue.getKey(), parameterValue.getValue());
+        }
+
+        if (library.getIncludes() != null && library.getIncludes().getDef() != null) {
+            for (IncludeDef def : library.getIncludes().getDef()) {
+                String name = def.getLocalIdentifier();
+                for (Map.Entry<String, Object> parameterValue : parameters.entrySet()) {
+                    setParameter(name, parameterValue.getKey(), parameterValue.getValue());
+                }
+            }
+        }
     }
 
     private void setEvaluationDateTime(ZonedDateTime evaluationZonedDateTime) {
@@ -222,12 +395,55 @@ public class Context {
         this.enableExpressionCache = yayOrNay;
     }
 
-    public boolean isExpressionInCache(VersionedIdentifier libraryId, String name) {
-        if (!this.expressions.containsKey(libraryId)) {
-            this.expressions.put(libraryId, constructLibraryExpressionHashMap());
+    public ExpressionCache getExpressionCache() {
+        return this.expressionCache;
+    }
+
+    public void setExpressionCache(ExpressionCache expressionCache) {
+        if (expressionCache == null) {
+            throw new CqlException("Expression cache must not be null.");
         }
 
-        return this.expressions.get(libraryId).containsKey(name);
+        this.expressionCache = expressionCache;
+    }
+
+    public SharedExpressionCache getSharedExpressionCache() {
+        return this.sharedExpressionCache;
+    }
+
+    /**
+     * Shares the results of context-independent definitions with the other contexts of a batch. The cache must
+     * have been created for the parameters this context has; setting a parameter drops it.
+     */
+    public void setSharedExpressionCache(SharedExpressionCache sharedExpressionCache) {
+        this.sharedExpressionCache = sharedExpressionCache;
+    }
+
+    public FunctionMemo getFunctionMemo() {
+        return functionMemo;
+    }
+
+    /**
+     * Remembers the results of pure function calls for this context, or null (the default) to evaluate every call.
+     */
+    public void setFunctionMemo(FunctionMemo functionMemo) {
+        this.functionMemo = functionMemo;
+    }
+
+    public SharedExpressionCache getParallelExpressionCache() {
+        return this.parallelExpressionCache;
+    }
+
+    /**
+     * Shares the results of all definitions between this context and its forks, so that definitions evaluated
+     * concurrently for the same evaluation are each evaluated once. See fork().
+     */
+    public void setParallelExpressionCache(SharedExpressionCache parallelExpressionCache) {
+        this.parallelExpressionCache = parallelExpressionCache;
+    }
+
+    public boolean isExpressionInCache(VersionedIdentifier libraryId, String name) {
+        return this.expressionCache.contains(libraryId, name);
     }
 
     public boolean isExpressionCachingEnabled() {
@@ -235,19 +451,11 @@ public class Context {
     }
 
     public void addExpressionToCache(VersionedIdentifier libraryId, String name, Object result) {
-        if (!this.expressions.containsKey(libraryId)) {
-            this.expressions.put(libraryId, constructLibraryExpressionHashMap());
-        }
-
-        this.expressions.get(libraryId).put(name, result);
+        this.expressionCache.put(libraryId, name, result);
     }
 
     public Object getExpressionResultFromCache(VersionedIdentifier libraryId, String name) {
-        if (!this.expressions.containsKey(libraryId)) {
-            this.expressions.put(libraryId, constructLibraryExpressionHashMap());
-        }
-
-        return this.expressions.get(libraryId).get(name);
+        return this.expressionCache.get(libraryId, name);
     }
 
     public void registerLibraryLoader(LibraryLoader libraryLoader) {
@@ -262,6 +470,21 @@ public class Context {
         return currentLibrary.peek();
     }
 
+    public Library getRootLibrary() {
+        return currentLibrary.firstElement();
+    }
+
+    public LibraryIndex getCurrentLibraryIndex() {
+        Library library = getCurrentLibrary();
+        LibraryIndex index = libraryIndexes.get(library);
+        if (index == null) {
+            index = LibraryIndex.of(library);
+            libraryIndexes.put(library, index);
+        }
+
+        return index;
+    }
+
     private Library resolveIncludeDef(IncludeDef includeDef) {
         VersionedIdentifier libraryIdentifier = new VersionedIdentifier()
             .withSystem(getUriPart(includeDef.getPath()))
@@ -293,6 +516,14 @@ public class Context {
         return false;
     }
 
+    /**
+     * Enters a library that has already been resolved, such as the target of a linked reference.
+     * Use exitLibrary(true) to leave it.
+     */
+    public void enterIncludedLibrary(Library library) {
+        currentLibrary.push(library);
+    }
+
     public void exitLibrary(boolean enteredLibrary) {
         if (enteredLibrary) {
             currentLibrary.pop();
@@ -300,41 +531,36 @@ public class Context {
     }
 
     public CodeDef resolveCodeRef(String name) {
-        for (CodeDef codeDef : getCurrentLibrary().getCodes().getDef()) {
-            if (codeDef.getName().equals(name)) {
-                return codeDef;
-            }
+        CodeDef codeDef = getCurrentLibraryIndex().getCodeDef(name);
+        if (codeDef != null) {
+            return codeDef;
         }
 
         throw new CqlException(String.format("Could not resolve code reference '%s'.", name));
     }
 
     public ConceptDef resolveConceptRef(String name) {
-        for (ConceptDef conceptDef : getCurrentLibrary().getConcepts().getDef()) {
-            if (conceptDef.getName().equals(name)) {
-                return conceptDef;
-            }
+        ConceptDef conceptDef = getCurrentLibraryIndex().getConceptDef(name);
+        if (conceptDef != null) {
+            return conceptDef;
         }
 
         throw new CqlException(String.format("Could not resolve concept reference '%s'.", name));
     }
 
     private IncludeDef resolveLibraryRef(String libraryName) {
-        for (IncludeDef includeDef : getCurrentLibrary().getIncludes().getDef()) {
-            if (includeDef.getLocalIdentifier().equals(libraryName)) {
-                return includeDef;
-            }
+        IncludeDef includeDef = getCurrentLibraryIndex().getIncludeDef(libraryName);
+        if (includeDef != null) {
+            return includeDef;
         }
 
         throw new CqlException(String.format("Could not resolve library reference '%s'.", libraryName));
     }
 
     public ExpressionDef resolveExpressionRef(String name) {
-
-        for (ExpressionDef expressionDef : getCurrentLibrary().getStatements().getDef()) {
-            if (expressionDef.getName().equals(name)) {
-                return expressionDef;
-            }
+        ExpressionDef expressionDef = getCurrentLibraryIndex().getExpressionDef(name);
+        if (expressionDef != null) {
+            return expressionDef;
         }
 
         throw new CqlException(String.format("Could not resolve expression reference '%s' in library '%s'.",
@@ -342,27 +568,69 @@ public class Context {
     }
 
     public Object resolveIdentifierRef(String name) {
-        for (int i = windows.size() - 1; i >= 0; i--) {
-            for (int j = 0; j < windows.get(i).size(); j++) {
-                Object value = windows.get(i).get(j).getValue();
-                if (value instanceof org.opencds.cqf.cql.engine.runtime.Tuple) {
-                    for (String key : ((org.opencds.cqf.cql.engine.runtime.Tuple) value).getElements().keySet()) {
-                        if (key.equals(name)) {
-                            return ((org.opencds.cqf.cql.engine.runtime.Tuple) value).getElements().get(key);
-                        }
+        return resolveIdentifierRef(name, null);
+    }
+
+    /**
+     * Resolves an unqualified identifier as a property of the first variable in scope that has it. Whether a
+     * variable has the property is asked of its model resolver, so a miss does not throw. If no variable has the
+     * property but some variable is null or has a model, the result is null, as the model would resolve a missing
+     * path to null.
+     * @param pathCache if given, remembers for each value type whether it has the property (tuples are not
+     *                  cached, as their elements vary by instance); see IdentifierRefEvaluator
+     */
+    public Object resolveIdentifierRef(String name, Map<Class<?>, Boolean> pathCache) {
+        boolean isResolvable = false;
+        for (int i = windowCount - 1; i >= 0; i--) {
+            for (int j = windowStarts[i]; j < windowEnd(i); j++) {
+                Object value = variables[j].getValue();
+                if (!isResolvable && (value == null || hasDataProvider(value))) {
+                    isResolvable = true;
+                }
+
+                if (value == null) {
+                    continue;
+                }
+
+                Boolean hasPath = pathCache != null ? pathCache.get(value.getClass()) : null;
+                if (hasPath == null) {
+                    hasPath = hasPath(value, name);
+                    if (pathCache != null && !(value instanceof org.opencds.cqf.cql.engine.runtime.Tuple)) {
+                        pathCache.put(value.getClass(), hasPath);
                     }
                 }
-                try {
-                    return resolvePath(value, name);
-                } catch (Exception ignored) {
 
+                if (hasPath) {
+                    return resolvePath(value, name);
                 }
             }
         }
 
+        if (isResolvable) {
+            return null;
+        }
+
         throw new CqlException("Cannot resolve identifier " + name);
     }
 
+    private DataProvider resolvePathDataProvider(Object target) {
+        Class<?> clazz = target.getClass();
+        if (clazz.getPackage() == null || clazz.getPackage().getName().startsWith("java.lang")) {
+            return null;
+        }
+
+        return resolveDataProvider(clazz.getPackage().getName(), false);
+    }
+
+    private boolean hasDataProvider(Object target) {
+        return resolvePathDataProvider(target) != null;
+    }
+
+    private boolean hasPath(Object target, String path) {
+        DataProvider dataProvider = resolvePathDataProvider(target);
+        return dataProvider != null && dataProvider.hasPath(target, path);
+    }
+
     public QName fixupQName(QName typeName) {
         // When a Json library is deserialized on Android
         if (typeName.getNamespaceURI() == null || typeName.getNamespaceURI().isEmpty()) {
@@ -509,36 +777,11 @@ public class Context {
         return null;
     }
 
-    private Map<String, List<FunctionDef>> functionCache = new HashMap<>();
     public FunctionDef resolveFunctionRef(String name, Iterable<Object> arguments, String libraryName) {
         FunctionDef ret = null;
-        String mangledFunctionName = (libraryName == null ? getCurrentLibrary().getIdentifier().getId() : libraryName) + "." + name;
-        if (functionCache.containsKey(mangledFunctionName)) {
-            for (FunctionDef functionDef : functionCache.get(mangledFunctionName)) {
-                if ((ret = resolveFunctionRef(functionDef, arguments)) != null) {
-                    break;
-                }
-            }
-        }
-        else {
-            // this logic adds all function defs with the specified name to the cache
-            for (ExpressionDef expressionDef : getCurrentLibrary().getStatements().getDef()) {
-                if (expressionDef.getName().equals(name)) {
-                    if (expressionDef instanceof FunctionDef) {
-                        FunctionDef candidate = resolveFunctionRef((FunctionDef) expressionDef, arguments);
-                        if (candidate != null) {
-                            ret = candidate;
-                        }
-                        if (functionCache.containsKey(mangledFunctionName)) {
-                            functionCache.get(mangledFunctionName).add((FunctionDef) expressionDef);
-                        }
-                        else {
-                            List<FunctionDef> functionDefs = new ArrayList<>();
-                            functionDefs.add((FunctionDef) expressionDef);
-                            functionCache.put(mangledFunctionName, functionDefs);
-                        }
-                    }
-                }
+        for (FunctionDef functionDef : getCurrentLibraryIndex().getFunctionDefs(name)) {
+            if ((ret = resolveFunctionRef(functionDef, arguments)) != null) {
+                break;
             }
         }
         if (ret != null) {
@@ -549,10 +792,9 @@ public class Context {
     }
 
     private ParameterDef resolveParameterRef(String name) {
-        for (ParameterDef parameterDef : getCurrentLibrary().getParameters().getDef()) {
-            if (parameterDef.getName().equals(name)) {
-                return parameterDef;
-            }
+        ParameterDef parameterDef = getCurrentLibraryIndex().getParameterDef(name);
+        if (parameterDef != null) {
+            return parameterDef;
         }
 
         throw new CqlException(String.format("Could not resolve parameter reference '%s' in library '%s'.",
@@ -564,6 +806,8 @@ public class Context {
         try {
             String fullName = libraryName != null ? String.format("%s.%s", getCurrentLibrary().getIdentifier().getId(), name) : name;
             parameters.put(fullName, value);
+            // Shared results were computed with the previous parameters
+            sharedExpressionCache = null;
         }
         finally {
             exitLibrary(enteredLibrary);
@@ -579,7 +823,16 @@ public class Context {
             }
 
             ParameterDef parameterDef = resolveParameterRef(name);
-            Object result = parameterDef.getDefault() != null ? parameterDef.getDefault().evaluate(this) : null;
+            Object result;
+            if (parameterDef.getDefault() == null) {
+                result = null;
+            }
+            else if (sharedExpressionCache != null && sharedExpressionCache.isContextIndependent(parameterDef)) {
+                result = sharedExpressionCache.get(parameterDef, this, () -> parameterDef.getDefault().evaluate(this));
+            }
+            else {
+                result = parameterDef.getDefault().evaluate(this);
+            }
             parameters.put(fullName, result);
             return result;
         }
@@ -589,10 +842,9 @@ public class Context {
     }
 
     public ValueSetDef resolveValueSetRef(String name) {
-        for (ValueSetDef valueSetDef : getCurrentLibrary().getValueSets().getDef()) {
-            if (valueSetDef.getName().equals(name)) {
-                return valueSetDef;
-            }
+        ValueSetDef valueSetDef = getCurrentLibraryIndex().getValueSetDef(name);
+        if (valueSetDef != null) {
+            return valueSetDef;
         }
 
         throw new CqlException(String.format("Could not resolve value set reference '%s' in library '%s'.",
@@ -610,10 +862,9 @@ public class Context {
     }
 
     public CodeSystemDef resolveCodeSystemRef(String name) {
-        for (CodeSystemDef codeSystemDef : getCurrentLibrary().getCodeSystems().getDef()) {
-            if (codeSystemDef.getName().equals(name)) {
-                return codeSystemDef;
-            }
+        CodeSystemDef codeSystemDef = getCurrentLibraryIndex().getCodeSystemDef(name);
+        if (codeSystemDef != null) {
+            return codeSystemDef;
         }
 
         throw new CqlException(String.format("Could not resolve code system reference '%s' in library '%s'.",
@@ -731,14 +982,50 @@ public class Context {
     }
 
     public void push(Variable variable) {
-        getStack().push(variable);
+        ensureVariableCapacity();
+        variables[variableCount++] = variable;
+    }
+
+    /**
+     * Pushes a variable without allocating, reusing the variable object the context keeps for the slot.
+     * The variable is only valid until it is popped.
+     */
+    public void push(String name, Object value) {
+        ensureVariableCapacity();
+        Variable variable = slotVariables[variableCount];
+        if (variable == null) {
+            variable = new Variable();
+            slotVariables[variableCount] = variable;
+        }
+        variable.setName(name);
+        variable.setValue(value);
+        variable.setIsList(false);
+        variables[variableCount++] = variable;
+    }
+
+    private void ensureVariableCapacity() {
+        if (variableCount == variables.length) {
+            variables = Arrays.copyOf(variables, variables.length * 2);
+            slotVariables = Arrays.copyOf(slotVariables, slotVariables.length * 2);
+        }
+    }
+
+    private void clearSlot(int slot) {
+        if (variables[slot] == slotVariables[slot]) {
+            variables[slot].setValue(null);
+        }
+        variables[slot] = null;
+    }
+
+    private int windowEnd(int window) {
+        return window == windowCount - 1 ? variableCount : windowStarts[window + 1];
     }
 
     public Variable resolveVariable(String name) {
-        for (int i = windows.size() - 1; i >= 0; i--) {
-            for (int j = 0; j < windows.get(i).size(); j++) {
-                if (windows.get(i).get(j).getName().equals(name)) {
-                    return windows.get(i).get(j);
+        for (int i = windowCount - 1; i >= 0; i--) {
+            for (int j = windowStarts[i]; j < windowEnd(i); j++) {
+                if (variables[j].getName().equals(name)) {
+                    return variables[j];
                 }
             }
         }
@@ -755,35 +1042,100 @@ public class Context {
         return result;
     }
 
+    /**
+     * Resolves a function operand by its position in the operand list. Operands are the first variables of the
+     * window pushed for the call, so the slot is known when the library is linked; the name check guards against
+     * references evaluated outside the window of their function.
+     */
+    public Object resolveOperand(int index, String name) {
+        Variable variable = getSlotVariable(index, name);
+        if (variable != null) {
+            return variable.getValue();
+        }
+
+        return resolveVariable(name, true).getValue();
+    }
+
+    /**
+     * Resolves a query alias by its slot in the current window, computed when the library is linked (see
+     * LibraryLinker). The name check falls back to resolving by name for variables pushed in an order the linker
+     * does not know about.
+     */
+    public Object resolveAlias(int index, String name) {
+        Variable variable = getSlotVariable(index, name);
+        if (variable != null && !variable.isList()) {
+            return variable.getValue();
+        }
+
+        return resolveAlias(name);
+    }
+
+    /**
+     * Resolves a query let by its slot in the current window, as resolveAlias(int, String) does for an alias.
+     */
+    public Object resolveQueryLet(int index, String name) {
+        Variable variable = getSlotVariable(index, name);
+        if (variable != null) {
+            return variable.getValue();
+        }
+
+        return resolveVariable(name, true).getValue();
+    }
+
+    private Variable getSlotVariable(int index, String name) {
+        int slot = windowStarts[windowCount - 1] + index;
+        if (slot < variableCount && name.equals(variables[slot].getName())) {
+            return variables[slot];
+        }
+
+        return null;
+    }
+
     public Object resolveAlias(String name) {
-        // This method needs to account for multiple variables on the stack with the same name
+        // The most recently pushed variable with the name wins, so the window is searched from the top
+        int windowStart = windowStarts[windowCount - 1];
+        for (int j = variableCount - 1; j >= windowStart; j--) {
+            if (variables[j].getName().equals(name)) {
+                if (variables[j].isList()) {
+                    return resolveListAlias(name);
+                }
+                return variables[j].getValue();
+            }
+        }
+
+        throw new CqlException(String.format("Could not resolve alias reference %s", name));
+    }
+
+    private Object resolveListAlias(String name) {
         ArrayList<Object> ret = new ArrayList<>();
-        boolean isList = false;
-        for (Variable v : getStack()) {
-            if (v.getName().equals(name)) {
-                if (v.isList())
-                    isList = true;
-                ret.add(v.getValue());
+        for (int j = windowStarts[windowCount - 1]; j < variableCount; j++) {
+            if (variables[j].getName().equals(name)) {
+                ret.add(variables[j].getValue());
             }
         }
-        return isList ? ret : ret.get(ret.size() - 1);
+        return ret;
     }
 
     public void pop() {
-        if (!windows.peek().empty())
-            getStack().pop();
+        if (variableCount > windowStarts[windowCount - 1]) {
+            variableCount--;
+            clearSlot(variableCount);
+        }
     }
 
     public void pushWindow() {
-        windows.push(new Stack<>());
+        if (windowCount == windowStarts.length) {
+            windowStarts = Arrays.copyOf(windowStarts, windowStarts.length * 2);
+        }
+        windowStarts[windowCount++] = variableCount;
     }
 
     public void popWindow() {
-        windows.pop();
-    }
-
-    private Stack<Variable> getStack() {
-        return windows.peek();
+        int windowStart = windowStarts[--windowCount];
+        while (variableCount > windowStart) {
+            variableCount--;
+            clearSlot(variableCount);
+        }
     }
 
     public Object resolvePath(Object target, String path) {
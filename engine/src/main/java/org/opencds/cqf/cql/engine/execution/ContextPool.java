@@ -0,0 +1,62 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.VersionedIdentifier;
+
+/**
+ * Holds idle contexts so they can be reset and reused rather than rebuilt for every evaluation. Contexts are pooled
+ * per root library; a pooled context is only handed out again for the same library instance, so contexts built
+ * against a library that has since been reloaded are discarded rather than reused.
+ */
+class ContextPool {
+
+    private final Map<VersionedIdentifier, Deque<Context>> idleContexts = new ConcurrentHashMap<>();
+    private final int maximumIdlePerLibrary;
+
+    public ContextPool(int maximumIdlePerLibrary) {
+        this.maximumIdlePerLibrary = maximumIdlePerLibrary;
+    }
+
+    public Context acquire(Library library) {
+        if (library.getIdentifier() == null) {
+            return null;
+        }
+
+        Deque<Context> idle = idleContexts.get(library.getIdentifier());
+        if (idle == null) {
+            return null;
+        }
+
+        Context context;
+        while ((context = idle.pollFirst()) != null) {
+            if (context.getRootLibrary() == library) {
+                return context;
+            }
+        }
+
+        return null;
+    }
+
+    public void release(Context context) {
+        Library library = context.getRootLibrary();
+        if (library.getIdentifier() == null) {
+            return;
+        }
+
+        Deque<Context> idle = idleContexts.computeIfAbsent(library.getIdentifier(), x -> new ConcurrentLinkedDeque<>());
+
+        // The size of a concurrent deque is only an estimate, which is good enough for a soft limit
+        if (idle.size() < maximumIdlePerLibrary) {
+            idle.offerFirst(context);
+        }
+    }
+
+    public void clear() {
+        idleContexts.clear();
+    }
+}
@@ -3,11 +3,31 @@ package org.opencds.cqf.cql.engine.execution;
 import static org.opencds.cqf.cql.engine.execution.NamespaceHelper.getNamePart;
 import static org.opencds.cqf.cql.engine.execution.NamespaceHelper.getUriPart;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.cqframework.cql.elm.execution.ExpressionDef;
@@ -17,6 +37,10 @@ import org.cqframework.cql.elm.execution.Library;
 import org.cqframework.cql.elm.execution.VersionedIdentifier;
 import org.opencds.cqf.cql.engine.data.DataProvider;
 import org.opencds.cqf.cql.engine.debug.DebugMap;
+import org.opencds.cqf.cql.engine.debug.FlightRecorderEvent;
+import org.opencds.cqf.cql.engine.debug.Profiler;
+import org.opencds.cqf.cql.engine.elm.execution.ExpressionCompiler;
+import org.opencds.cqf.cql.engine.elm.execution.ExpressionDefEvaluator;
 import org.opencds.cqf.cql.engine.exception.CqlException;
 import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
 
@@ -44,13 +68,31 @@ import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
 public class CqlEngine {
 
     public static enum Options {
-        EnableExpressionCaching
+        EnableExpressionCaching,
+        EnableFunctionMemoization,
+        EnableConstantFolding,
+        EnableCompilation,
+        EnableProfiling
     }
 
+    // The number of population evaluations kept in flight per available processor by default
+    private static final int DEFAULT_POPULATION_BATCH_FACTOR = 2;
+
     private LibraryLoader libraryLoader;
     private Map<String, DataProvider> dataProviders;
     private TerminologyProvider terminologyProvider;
     private EnumSet<Options> engineOptions;
+    private LibraryCache libraryCache;
+    private Supplier<ExpressionCache> expressionCacheFactory = ExpressionCache::unbounded;
+    private Executor expressionExecutor;
+    private int functionMemoSize = FunctionMemo.DEFAULT_MAXIMUM_SIZE;
+    private AtomicLong foldedExpressionCount = new AtomicLong();
+    // One lock per library identifier loaded by this engine, held while the library is loaded and prepared
+    private Map<VersionedIdentifier, Object> loadLocks = new ConcurrentHashMap<>();
+    private ContextPool contextPool = new ContextPool(DEFAULT_POPULATION_BATCH_FACTOR * Runtime.getRuntime().availableProcessors());
+
+    // Contexts resolve includes through the engine's cache, loading and validating anything that has been evicted
+    private LibraryLoader cachingLibraryLoader = this::loadAndValidate;
 
     public CqlEngine(LibraryLoader libraryLoader) {
         this(libraryLoader, null, null, null);
@@ -61,10 +103,14 @@ public class CqlEngine {
     }
 
     public CqlEngine(LibraryLoader libraryLoader, EnumSet<Options> engineOptions) {
-        this(libraryLoader, null, null, null);
+        this(libraryLoader, null, null, engineOptions);
     }
 
     public CqlEngine(LibraryLoader libraryLoader, Map<String, DataProvider> dataProviders, TerminologyProvider terminologyProvider, EnumSet<Options> engineOptions) {
+        this(libraryLoader, dataProviders, terminologyProvider, engineOptions, null);
+    }
+
+    public CqlEngine(LibraryLoader libraryLoader, Map<String, DataProvider> dataProviders, TerminologyProvider terminologyProvider, EnumSet<Options> engineOptions, LibraryCache libraryCache) {
 
         if (libraryLoader == null) {
             throw new IllegalArgumentException("libraryLoader can not be null.");
@@ -78,6 +124,64 @@ public class CqlEngine {
         this.dataProviders = dataProviders;
         this.terminologyProvider = terminologyProvider;
         this.engineOptions = engineOptions;
+        this.libraryCache = libraryCache != null ? libraryCache : new LibraryCache();
+    }
+
+    /**
+     * Returns the cache of loaded and validated libraries used by this engine. The cache lives as long as the engine, so
+     * use invalidate() or invalidateAll() when the underlying library content changes.
+     */
+    public LibraryCache getLibraryCache() {
+        return this.libraryCache;
+    }
+
+    /**
+     * Sets how each evaluation caches expression results when EnableExpressionCaching is set, e.g.
+     * () -> ExpressionCache.leastRecentlyUsed(200).pin(libraryId, "Initial Population"). The factory is called
+     * once per Context; Options is an enum and cannot carry the strategy itself. Defaults to ExpressionCache::unbounded.
+     */
+    public void setExpressionCacheFactory(Supplier<ExpressionCache> expressionCacheFactory) {
+        if (expressionCacheFactory == null) {
+            throw new IllegalArgumentException("expressionCacheFactory can not be null.");
+        }
+
+        this.expressionCacheFactory = expressionCacheFactory;
+        // Pooled contexts hold caches from the previous factory
+        this.contextPool.clear();
+    }
+
+    /**
+     * Returns the number of expressions replaced by their values across the libraries this engine has prepared when
+     * EnableConstantFolding is set (see ConstantFolder).
+     */
+    public long getFoldedExpressionCount() {
+        return this.foldedExpressionCount.get();
+    }
+
+    /**
+     * Sets the number of function results each evaluation remembers when EnableFunctionMemoization is set.
+     * Defaults to FunctionMemo.DEFAULT_MAXIMUM_SIZE.
+     */
+    public void setFunctionMemoSize(int functionMemoSize) {
+        if (functionMemoSize < 1) {
+            throw new IllegalArgumentException("functionMemoSize must be at least 1.");
+        }
+
+        this.functionMemoSize = functionMemoSize;
+        // Pooled contexts hold memos of the previous size
+        this.contextPool.clear();
+    }
+
+    /**
+     * Sets the executor used to evaluate the definitions of a single evaluation in parallel. Definitions are
+     * scheduled once everything they reference has been evaluated, so independent definitions run concurrently and
+     * each definition is evaluated at most once. The calling thread evaluates definitions too while it waits, so the
+     * executor may be shared with evaluatePopulation(), or be bounded or saturated, without the evaluation stalling.
+     * Defaults to null, which evaluates definitions one at a time on the calling thread. Evaluations with a debug map
+     * are always sequential.
+     */
+    public void setExpressionExecutor(Executor expressionExecutor) {
+        this.expressionExecutor = expressionExecutor;
     }
 
     // TODO: Add debugging info as a parameter.
@@ -142,29 +246,144 @@ public class CqlEngine {
     }
 
     public EvaluationResult evaluate(VersionedIdentifier libraryIdentifier, Set<String> expressions, Pair<String, Object> contextParameter, Map<String, Object> parameters, DebugMap debugMap) {
-        // TODO: Figure out way to validate / invalidate library cache
-        Map<VersionedIdentifier, Library> libraryCache = new HashMap<>();
-
         if (libraryIdentifier == null) {
             throw new IllegalArgumentException("libraryIdentifier can not be null.");
         }
 
-        Library library = this.loadAndValidate(libraryCache, libraryIdentifier);
+        FlightRecorderEvent.Started event = FlightRecorderEvent.EVALUATION.begin();
+
+        Library library = this.loadAndValidate(libraryIdentifier);
 
         if (expressions == null) {
             expressions = this.getExpressionSet(library);
         }
 
-        // TODO: Some testing to see if it's more performant to reset a context rather than create a new one.
-        Context context = this.initializeContext(libraryCache, library, debugMap);
-        this.setParametersForContext(library, context, contextParameter, parameters);
+        Context context = this.acquireContext(library, debugMap, contextParameter, parameters);
+        try {
+            EvaluationResult result = this.evaluateExpressions(context, expressions);
+            if (contextParameter != null) {
+                result.setContextValue(contextParameter.getRight());
+            }
 
-        return this.evaluateExpressions(context, expressions);
+            return result;
+        }
+        finally {
+            this.releaseContext(context, debugMap);
+            if (event != null) {
+                event.commit(libraryIdentifier.getId(),
+                    contextParameter != null ? String.valueOf(contextParameter.getRight()) : null, expressions.size());
+            }
+        }
+    }
+
+    /**
+     * Evaluates only the given root definitions and the definitions they reference, rather than every definition of
+     * the library, and reports in the result the definitions and retrieves that evaluating the whole library would
+     * have run in addition (see DemandAnalysis). The results contain the roots only.
+     */
+    public EvaluationResult evaluatePruned(VersionedIdentifier libraryIdentifier, Set<String> roots, Pair<String, Object> contextParameter, Map<String, Object> parameters) {
+        if (libraryIdentifier == null) {
+            throw new IllegalArgumentException("libraryIdentifier can not be null.");
+        }
+
+        if (roots == null) {
+            throw new IllegalArgumentException("roots can not be null.");
+        }
+
+        DemandAnalysis analysis = DemandAnalysis.of(this.loadAndValidate(libraryIdentifier), roots);
+
+        EvaluationResult result = this.evaluate(libraryIdentifier, roots, contextParameter, parameters, null);
+        result.setSkippedExpressions(analysis.getSkippedExpressions());
+        result.setSkippedRetrieves(analysis.getSkippedRetrieves());
+        return result;
+    }
+
+    public Iterator<EvaluationResult> evaluatePopulation(String libraryName, Set<String> expressions, Iterable<?> contextValues, Map<String, Object> parameters, Executor executor) {
+        return this.evaluatePopulation(new VersionedIdentifier().withId(libraryName), expressions, contextValues, parameters, executor);
+    }
+
+    public Iterator<EvaluationResult> evaluatePopulation(VersionedIdentifier libraryIdentifier, Set<String> expressions, Iterable<?> contextValues, Map<String, Object> parameters, Executor executor) {
+        return this.evaluatePopulation(libraryIdentifier, expressions, "Patient", contextValues, parameters, executor, DEFAULT_POPULATION_BATCH_FACTOR * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Evaluates the library once for each of the given context values (e.g. patient ids), sharing the loaded and validated
+     * libraries across all of the evaluations. Each evaluation gets its own Context and runs as a task on the given executor,
+     * so the executor determines the number of worker threads. Results are streamed back in completion order as they become
+     * available, with at most maxInFlight evaluations queued or running at a time. Use EvaluationResult.getContextValue()
+     * to correlate a result with its context value. Population and Unfiltered context definitions and parameter defaults
+     * that do not depend on the evaluation time are evaluated once for the whole batch (see SharedExpressionCache).
+     */
+    public Iterator<EvaluationResult> evaluatePopulation(VersionedIdentifier libraryIdentifier, Set<String> expressions, String contextName, Iterable<?> contextValues,
+        Map<String, Object> parameters, Executor executor, int maxInFlight) {
+        if (libraryIdentifier == null) {
+            throw new IllegalArgumentException("libraryIdentifier can not be null.");
+        }
+
+        if (contextName == null) {
+            throw new IllegalArgumentException("contextName can not be null.");
+        }
+
+        if (contextValues == null) {
+            throw new IllegalArgumentException("contextValues can not be null.");
+        }
+
+        if (executor == null) {
+            throw new IllegalArgumentException("executor can not be null.");
+        }
+
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1.");
+        }
+
+        Library library = this.loadAndValidate(libraryIdentifier);
+        Set<String> populationExpressions = expressions != null ? expressions : this.getExpressionSet(library);
+
+        // Population and Unfiltered definitions and parameter defaults are evaluated once for the whole batch
+        SharedExpressionCache sharedExpressionCache = new SharedExpressionCache();
+
+        return new PopulationEvaluationIterator(contextValues.iterator(), executor, maxInFlight, contextValue -> {
+            Context context = this.acquireContext(library, null, Pair.of(contextName, contextValue), parameters);
+            context.setSharedExpressionCache(sharedExpressionCache);
+            try {
+                EvaluationResult result = this.evaluateExpressions(context, populationExpressions);
+                result.setContextValue(contextValue);
+                return result;
+            }
+            finally {
+                this.releaseContext(context, null);
+            }
+        });
     }
 
     private EvaluationResult evaluateExpressions(Context context, Set<String> expressions) {
         EvaluationResult  result = new EvaluationResult();
 
+        // Statics that fall back to the thread local context must see this context, whichever thread we're on
+        Context.setContext(context);
+
+        if (this.expressionExecutor != null && context.getDebugMap() == null && expressions.size() > 1) {
+            this.evaluateExpressionsInParallel(context, expressions, result);
+        }
+        else {
+            this.evaluateExpressionsSequentially(context, expressions, result);
+        }
+
+        result.setDebugResult(context.getDebugResult());
+        if (context.isExpressionCachingEnabled()) {
+            result.setExpressionCacheStatistics(context.getExpressionCache().getStatistics());
+        }
+        if (context.getFunctionMemo() != null) {
+            result.setFunctionMemoStatistics(context.getFunctionMemo().getStatistics());
+        }
+        if (context.getProfiler() != null) {
+            result.setProfile(context.getProfiler().getProfile());
+        }
+
+        return result;
+    }
+
+    private void evaluateExpressionsSequentially(Context context, Set<String> expressions, EvaluationResult result) {
         for (String expression : expressions) {
             ExpressionDef def = context.resolveExpressionRef(expression);
 
@@ -184,44 +403,223 @@ public class CqlEngine {
             Object object = def.evaluate(context);
             result.expressionResults.put(expression, object);
         }
+    }
+
+    /**
+     * Schedules each requested definition of the root library, and the definitions of the root library it depends on,
+     * on the expression executor once its dependencies are complete. Each task evaluates on a fork of the context;
+     * the forks share a SharedExpressionCache so a definition reached from several tasks is evaluated once.
+     */
+    private void evaluateExpressionsInParallel(Context context, Set<String> expressions, EvaluationResult result) {
+        Library library = context.getRootLibrary();
+        LibraryIndex index = LibraryIndex.of(library);
+        Map<ExpressionDef, CompletableFuture<Object>> tasks = new IdentityHashMap<>();
+        Deque<Context> idleForks = new ConcurrentLinkedDeque<>();
+        Queue<Context> forks = new ConcurrentLinkedQueue<>();
+        BlockingQueue<Runnable> ready = new LinkedBlockingQueue<>();
+
+        context.setParallelExpressionCache(new SharedExpressionCache());
+        try {
+            Map<String, CompletableFuture<Object>> requested = new LinkedHashMap<>();
+            for (String expression : expressions) {
+                ExpressionDef def = context.resolveExpressionRef(expression);
+
+                if (def == null) {
+                    throw new CqlException(String.format("Unable to resolve expression \"%s.\"", expression));
+                }
+
+                if (def instanceof FunctionDef) {
+                    continue;
+                }
+
+                requested.put(expression, this.scheduleExpression(context, index, def, tasks, idleForks, forks, ready));
+            }
+
+            // Definitions whose dependencies are evaluated are queued here as well as handed to the executor, and this
+            // thread runs them while it waits, so the evaluation completes even when the executor is busy with its
+            // callers (as when evaluatePopulation() runs on the same pool)
+            CompletableFuture<Void> all = CompletableFuture.allOf(requested.values().toArray(new CompletableFuture<?>[0]));
+            all.whenComplete((x, e) -> ready.add(() -> { }));
+            while (!all.isDone()) {
+                try {
+                    ready.take().run();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CqlException("Interrupted while evaluating definitions in parallel.", e);
+                }
+            }
+
+            for (Map.Entry<String, CompletableFuture<Object>> entry : requested.entrySet()) {
+                try {
+                    result.expressionResults.put(entry.getKey(), entry.getValue().join());
+                }
+                catch (CompletionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+
+                    throw new CqlException(cause);
+                }
+            }
+        }
+        finally {
+            context.setParallelExpressionCache(null);
+
+            // Report each resource once, however many forks evaluated it
+            Set<Object> evaluatedResources = Collections.newSetFromMap(new IdentityHashMap<>());
+            evaluatedResources.addAll(context.getEvaluatedResources());
+            for (Context fork : forks) {
+                for (Object resource : fork.getEvaluatedResources()) {
+                    if (evaluatedResources.add(resource)) {
+                        context.getEvaluatedResources().add(resource);
+                    }
+                }
 
-        result.setDebugResult(context.getDebugResult());
+                if (context.getProfiler() != null) {
+                    context.getProfiler().merge(fork.getProfiler());
+                }
+            }
+        }
+    }
 
+    private CompletableFuture<Object> scheduleExpression(Context context, LibraryIndex index, ExpressionDef def,
+        Map<ExpressionDef, CompletableFuture<Object>> tasks, Deque<Context> idleForks, Queue<Context> forks,
+        BlockingQueue<Runnable> ready) {
+        CompletableFuture<Object> task = tasks.get(def);
+        if (task != null) {
+            return task;
+        }
+
+        // Definitions of included libraries are evaluated on demand by the definitions that reference them
+        List<CompletableFuture<Object>> dependencies = new ArrayList<>();
+        if (def instanceof ExpressionDefEvaluator) {
+            for (ExpressionDef dependency : ((ExpressionDefEvaluator) def).getDependencies()) {
+                if (!(dependency instanceof FunctionDef) && index.getExpressionDef(dependency.getName()) == dependency) {
+                    dependencies.add(this.scheduleExpression(context, index, dependency, tasks, idleForks, forks, ready));
+                }
+            }
+        }
+
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        ReadyExpression readyExpression = new ReadyExpression(result, () -> this.evaluateForked(context, def, idleForks, forks));
+        CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0])).whenComplete((x, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+
+            ready.add(readyExpression);
+            try {
+                this.expressionExecutor.execute(readyExpression);
+            }
+            catch (RejectedExecutionException rejected) {
+                // Run by the evaluating thread
+            }
+        });
+        tasks.put(def, result);
         return result;
     }
 
-    private void setParametersForContext(Library library, Context context, Pair<String, Object> contextParameter, Map<String, Object> parameters) {
-        if (contextParameter != null) {
-            context.setContextValue(contextParameter.getLeft(), contextParameter.getRight());
+    /**
+     * A definition of a parallel evaluation whose dependencies have been evaluated. It is run by whichever thread
+     * gets to it first, the executor's or the one waiting for the evaluation; the other finds it claimed.
+     */
+    private static class ReadyExpression implements Runnable {
+        private final AtomicBoolean isClaimed = new AtomicBoolean();
+        private final CompletableFuture<Object> result;
+        private final Supplier<Object> evaluation;
+
+        ReadyExpression(CompletableFuture<Object> result, Supplier<Object> evaluation) {
+            this.result = result;
+            this.evaluation = evaluation;
         }
 
-        if (parameters != null) {
-            for (Map.Entry<String, Object> parameterValue : parameters.entrySet()) {
-               context.setParameter(library.getLocalId(), parameterValue.getKey(), parameterValue.getValue());
+        @Override
+        public void run() {
+            if (!isClaimed.compareAndSet(false, true)) {
+                return;
             }
 
-            if (library.getIncludes() != null && library.getIncludes().getDef() != null) {
-                for (IncludeDef def : library.getIncludes().getDef()) {
-                    String name = def.getLocalIdentifier();
-                    for (Map.Entry<String, Object> parameterValue : parameters.entrySet()) {
-                        context.setParameter(name, parameterValue.getKey(), parameterValue.getValue());
-                    }
+            try {
+                result.complete(evaluation.get());
+            }
+            catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private Object evaluateForked(Context context, ExpressionDef def, Deque<Context> idleForks, Queue<Context> forks) {
+        Context fork = idleForks.poll();
+        if (fork == null) {
+            fork = context.fork();
+            forks.add(fork);
+        }
+
+        Context previous = Context.getContext();
+        Context.setContext(fork);
+        try {
+            if (def.getContext() != null) {
+                fork.enterContext(def.getContext());
+            }
+            try {
+                return def.evaluate(fork);
+            }
+            finally {
+                if (def.getContext() != null) {
+                    fork.exitContext();
                 }
             }
         }
+        finally {
+            Context.setContext(previous);
+            idleForks.push(fork);
+        }
+    }
+
+    private Context acquireContext(Library library, DebugMap debugMap, Pair<String, Object> contextParameter, Map<String, Object> parameters) {
+        // Contexts with a debug map are never pooled, since the debug settings are specific to the caller
+        Context context = debugMap == null ? this.contextPool.acquire(library) : null;
+        if (context == null) {
+            context = this.initializeContext(this.cachingLibraryLoader, library, debugMap);
+        }
+
+        context.reset(contextParameter, parameters);
+        return context;
+    }
+
+    private void releaseContext(Context context, DebugMap debugMap) {
+        if (debugMap == null) {
+            this.contextPool.release(context);
+        }
     }
 
-    private Context initializeContext(Map<VersionedIdentifier, Library> libraryCache, Library library, DebugMap debugMap) {
+    private Context initializeContext(LibraryLoader contextLibraryLoader, Library library, DebugMap debugMap) {
         // Context requires an initial library to init properly.
         // TODO: Allow context to be initialized with multiple libraries
         Context context = new Context(library);
 
         // TODO: Does the context actually need a library loaded if all the libraries are prefetched?
         // We'd have to make sure we include the dependencies too.
-        context.registerLibraryLoader(new InMemoryLibraryLoader(libraryCache.values()));
+        context.registerLibraryLoader(contextLibraryLoader);
 
         if (this.engineOptions.contains(Options.EnableExpressionCaching)) {
             context.setExpressionCaching(true);
+            context.setExpressionCache(this.expressionCacheFactory.get());
+        }
+
+        if (this.engineOptions.contains(Options.EnableFunctionMemoization)) {
+            context.setFunctionMemo(new FunctionMemo(this.functionMemoSize));
+        }
+
+        if (this.engineOptions.contains(Options.EnableProfiling)) {
+            context.setProfiler(new Profiler());
         }
 
         if (this.terminologyProvider != null) {
@@ -239,13 +637,39 @@ public class CqlEngine {
         return context;
     }
 
-    private Library loadAndValidate(Map<VersionedIdentifier, Library> libraryCache, VersionedIdentifier libraryIdentifier) {
-        Library library;
-        if (libraryCache.containsKey(libraryIdentifier)) {
-            return libraryCache.get(libraryIdentifier);
+    private Library loadAndValidate(VersionedIdentifier libraryIdentifier) {
+        Library library = this.libraryCache.get(libraryIdentifier);
+        if (library != null) {
+            return library;
         }
 
-        library = this.libraryLoader.load(libraryIdentifier);
+        // Concurrent misses for the same library wait for a single load rather than each loading it. Includes are
+        // acyclic, so a thread holding the lock of a library only waits for the locks of libraries it includes.
+        Object loadLock = this.loadLocks.computeIfAbsent(
+            new VersionedIdentifier()
+                .withSystem(libraryIdentifier.getSystem())
+                .withId(libraryIdentifier.getId())
+                .withVersion(libraryIdentifier.getVersion()),
+            x -> new Object());
+        synchronized (loadLock) {
+            // Checked without counting a second miss; the library was loaded while this thread waited
+            if (this.libraryCache.contains(libraryIdentifier)) {
+                library = this.libraryCache.get(libraryIdentifier);
+                if (library != null) {
+                    return library;
+                }
+            }
+
+            return load(libraryIdentifier);
+        }
+    }
+
+    private Library load(VersionedIdentifier libraryIdentifier) {
+        FlightRecorderEvent.Started event = FlightRecorderEvent.LIBRARY_LOAD.begin();
+        Library library = this.libraryLoader.load(libraryIdentifier);
+        if (event != null) {
+            event.commit(libraryIdentifier.getId(), libraryIdentifier.getVersion());
+        }
 
         if (library == null) {
             throw new IllegalArgumentException(String.format("Unable to load library %s",
@@ -261,17 +685,35 @@ public class CqlEngine {
         // TODO: Optimization ?
         // TODO: Validate Expressions as well?
 
+        Map<String, Library> includedLibraries = new HashMap<>();
+        List<VersionedIdentifier> includedIdentifiers = new ArrayList<>();
         if (library.getIncludes() != null && library.getIncludes().getDef() != null) {
             for (IncludeDef include : library.getIncludes().getDef()) {
-                this.loadAndValidate(libraryCache,
-                    new VersionedIdentifier()
+                VersionedIdentifier includedIdentifier = new VersionedIdentifier()
                     .withSystem(getUriPart(include.getPath()))
                     .withId(getNamePart(include.getPath()))
-                    .withVersion(include.getVersion()));
+                    .withVersion(include.getVersion());
+                includedIdentifiers.add(includedIdentifier);
+                includedLibraries.put(include.getLocalIdentifier(), this.loadAndValidate(includedIdentifier));
             }
         }
 
-        libraryCache.put(libraryIdentifier, library);
+        // Build the symbol index once here so that every context evaluating this library shares it, then bind
+        // the library's references to their targets. The passes rewrite the library in place, so they run once per
+        // library instance: a library reloaded after eviction, or shared with another engine, is already prepared
+        // and may be under evaluation.
+        LibraryIndex.of(library).prepare(() -> {
+            if (this.engineOptions.contains(Options.EnableConstantFolding)) {
+                this.foldedExpressionCount.addAndGet(ConstantFolder.fold(library, this.cachingLibraryLoader));
+            }
+            LibraryLinker.link(library, includedLibraries);
+            if (this.engineOptions.contains(Options.EnableCompilation)) {
+                ExpressionCompiler.compile(library);
+            }
+        });
+
+        // Recorded with the includes so that invalidating any of them also drops this library, which is linked to them
+        this.libraryCache.put(libraryIdentifier, library, includedIdentifiers);
         return library;
     }
 
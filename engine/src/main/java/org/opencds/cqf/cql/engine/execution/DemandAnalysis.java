@@ -0,0 +1,147 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.cqframework.cql.elm.execution.ExpressionDef;
+import org.cqframework.cql.elm.execution.FunctionDef;
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.Retrieve;
+import org.opencds.cqf.cql.engine.elm.execution.ExpressionRefEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.FunctionRefEvaluator;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+
+/**
+ * Determines which definitions of a linked library are needed to evaluate a set of root definitions, and what
+ * evaluating every definition of the library would have done beyond that. The analysis follows the references bound
+ * by LibraryLinker, including those into included libraries and through function bodies. References the linker
+ * could not bind are resolved at run time; they are still evaluated on demand, but the analysis does not see them,
+ * so the definitions they reach may be reported as skipped.
+ */
+public class DemandAnalysis {
+
+    private final Set<String> requiredExpressions;
+    private final Set<String> skippedExpressions;
+    private final List<Retrieve> skippedRetrieves;
+
+    private DemandAnalysis(Set<String> requiredExpressions, Set<String> skippedExpressions, List<Retrieve> skippedRetrieves) {
+        this.requiredExpressions = Collections.unmodifiableSet(requiredExpressions);
+        this.skippedExpressions = Collections.unmodifiableSet(skippedExpressions);
+        this.skippedRetrieves = Collections.unmodifiableList(skippedRetrieves);
+    }
+
+    /**
+     * Returns the analysis of a library for a set of roots. Analyses are remembered per library instance and root
+     * set, alongside the library's index, so repeated pruned evaluations of the same roots do not walk the library
+     * again.
+     */
+    public static DemandAnalysis of(Library library, Set<String> roots) {
+        LibraryIndex index = LibraryIndex.of(library);
+        return index.getDemandAnalysis(new HashSet<>(roots), x -> analyze(library, index, x));
+    }
+
+    private static DemandAnalysis analyze(Library library, LibraryIndex index, Set<String> roots) {
+
+        List<ExpressionDef> rootDefs = new ArrayList<>();
+        for (String root : roots) {
+            ExpressionDef def = index.getExpressionDef(root);
+            if (def == null) {
+                throw new CqlException(String.format("Unable to resolve expression \"%s.\"", root));
+            }
+            rootDefs.add(def);
+        }
+
+        List<ExpressionDef> allDefs = new ArrayList<>();
+        if (library.getStatements() != null) {
+            allDefs.addAll(library.getStatements().getDef());
+        }
+
+        Reach required = new Reach();
+        for (ExpressionDef def : rootDefs) {
+            required.add(def);
+        }
+
+        Reach all = new Reach();
+        for (ExpressionDef def : allDefs) {
+            all.add(def);
+        }
+
+        Set<String> requiredExpressions = new LinkedHashSet<>();
+        Set<String> skippedExpressions = new LinkedHashSet<>();
+        for (ExpressionDef def : allDefs) {
+            if (def instanceof FunctionDef) {
+                continue;
+            }
+
+            if (required.definitions.contains(def)) {
+                requiredExpressions.add(def.getName());
+            }
+            else {
+                skippedExpressions.add(def.getName());
+            }
+        }
+
+        List<Retrieve> skippedRetrieves = new ArrayList<>();
+        for (Retrieve retrieve : all.retrieveOrder) {
+            if (!required.retrieves.contains(retrieve)) {
+                skippedRetrieves.add(retrieve);
+            }
+        }
+
+        return new DemandAnalysis(requiredExpressions, skippedExpressions, skippedRetrieves);
+    }
+
+    /**
+     * The non-function definitions of the library that evaluating the roots evaluates, including the roots.
+     */
+    public Set<String> getRequiredExpressions() {
+        return requiredExpressions;
+    }
+
+    /**
+     * The non-function definitions of the library that evaluating the roots does not evaluate.
+     */
+    public Set<String> getSkippedExpressions() {
+        return skippedExpressions;
+    }
+
+    /**
+     * The retrieves, in this library or its includes, that only the skipped definitions reach.
+     */
+    public List<Retrieve> getSkippedRetrieves() {
+        return skippedRetrieves;
+    }
+
+    // The definitions and retrieves reached from a set of definitions, in the order they are first reached.
+    // ELM equality is structural, so both are tracked by identity.
+    private static class Reach {
+        private final Set<ExpressionDef> definitions = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Retrieve> retrieves = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<Retrieve> retrieveOrder = new ArrayList<>();
+
+        void add(ExpressionDef def) {
+            if (!definitions.add(def)) {
+                return;
+            }
+
+            ElmWalker.walk(def.getExpression(), node -> {
+                if (node instanceof Retrieve && retrieves.add((Retrieve) node)) {
+                    retrieveOrder.add((Retrieve) node);
+                }
+                else if (node instanceof ExpressionRefEvaluator && ((ExpressionRefEvaluator) node).getBoundExpressionDef() != null) {
+                    add(((ExpressionRefEvaluator) node).getBoundExpressionDef());
+                }
+                else if (node instanceof FunctionRefEvaluator && ((FunctionRefEvaluator) node).getBoundFunctionDef() != null) {
+                    add(((FunctionRefEvaluator) node).getBoundFunctionDef());
+                }
+
+                return true;
+            });
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import org.cqframework.cql.elm.execution.Library;
+import org.opencds.cqf.cql.engine.elm.execution.Executable;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+
+/**
+ * Walks an ELM tree depth first. The ELM classes are generated and have no visitor support, so the walk reflects
+ * over the fields declared by the generated classes (fields added by the evaluator subclasses are not ELM content
+ * and are not followed). The child fields of each class are looked up once and cached.
+ */
+public class ElmWalker {
+
+    public interface Visitor {
+        /**
+         * Called for each node of the tree before its children.
+         * @return whether the children of the node should be visited
+         */
+        boolean visit(Object node);
+    }
+
+    private static final String ELM_PACKAGE = Library.class.getPackage().getName();
+
+    private static final Map<Class<?>, List<Field>> childFields = new ConcurrentHashMap<>();
+
+    private ElmWalker() {
+    }
+
+    public static void walk(Object node, Visitor visitor) {
+        if (!(node instanceof Executable) || !visitor.visit(node)) {
+            return;
+        }
+
+        for (Object child : getChildren(node)) {
+            walk(child, visitor);
+        }
+    }
+
+    public static List<Object> getChildren(Object node) {
+        List<Object> children = new ArrayList<>();
+        for (Field field : getChildFields(node.getClass())) {
+            Object value;
+            try {
+                value = field.get(node);
+            }
+            catch (IllegalAccessException e) {
+                throw new CqlException(String.format("Could not read field %s of %s.", field.getName(), node.getClass().getName()), e);
+            }
+
+            if (value instanceof List) {
+                for (Object item : (List<?>) value) {
+                    if (item instanceof Executable) {
+                        children.add(item);
+                    }
+                }
+            }
+            else if (value instanceof Executable) {
+                children.add(value);
+            }
+        }
+
+        return children;
+    }
+
+    /**
+     * Replaces the children of a node in place with the result of the replacement function. A child is only replaced
+     * when the replacement can be held by the field (or list element type) holding the child; otherwise it is kept.
+     */
+    public static void replaceChildren(Object node, UnaryOperator<Object> replacement) {
+        for (Field field : getChildFields(node.getClass())) {
+            try {
+                Object value = field.get(node);
+                if (value instanceof List) {
+                    Class<?> elementType = getElementType(field);
+                    @SuppressWarnings("unchecked")
+                    ListIterator<Object> items = ((List<Object>) value).listIterator();
+                    while (items.hasNext()) {
+                        Object item = items.next();
+                        if (item instanceof Executable) {
+                            Object replaced = replacement.apply(item);
+                            if (replaced != item && elementType.isInstance(replaced)) {
+                                items.set(replaced);
+                            }
+                        }
+                    }
+                }
+                else if (value instanceof Executable) {
+                    Object replaced = replacement.apply(value);
+                    if (replaced != value && field.getType().isInstance(replaced)) {
+                        field.set(node, replaced);
+                    }
+                }
+            }
+            catch (IllegalAccessException e) {
+                throw new CqlException(String.format("Could not replace field %s of %s.", field.getName(), node.getClass().getName()), e);
+            }
+        }
+    }
+
+    private static Class<?> getElementType(Field field) {
+        if (field.getGenericType() instanceof ParameterizedType) {
+            Type elementType = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+            if (elementType instanceof Class) {
+                return (Class<?>) elementType;
+            }
+        }
+
+        // Unknown element types are never replaced
+        return Void.class;
+    }
+
+    private static List<Field> getChildFields(Class<?> clazz) {
+        List<Field> fields = childFields.get(clazz);
+        if (fields == null) {
+            fields = new ArrayList<>();
+            for (Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+                if (current.getPackage() == null || !current.getPackage().getName().equals(ELM_PACKAGE)) {
+                    continue;
+                }
+
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+
+                    if (Executable.class.isAssignableFrom(field.getType()) || List.class.isAssignableFrom(field.getType())) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+
+            fields = Collections.unmodifiableList(fields);
+            childFields.put(clazz, fields);
+        }
+
+        return fields;
+    }
+}
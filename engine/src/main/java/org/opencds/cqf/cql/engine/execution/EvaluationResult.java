@@ -1,9 +1,13 @@
 package org.opencds.cqf.cql.engine.execution;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.cqframework.cql.elm.execution.Retrieve;
 import org.opencds.cqf.cql.engine.debug.DebugResult;
+import org.opencds.cqf.cql.engine.debug.Profile;
 
 public class EvaluationResult {
     public Map<String, Object> expressionResults;
@@ -23,5 +27,53 @@ public class EvaluationResult {
     public void setDebugResult(DebugResult debugResult) {
         this.debugResult = debugResult;
     }
-    
+
+    private ExpressionCache.Statistics expressionCacheStatistics;
+    public ExpressionCache.Statistics getExpressionCacheStatistics() {
+        return expressionCacheStatistics;
+    }
+    public void setExpressionCacheStatistics(ExpressionCache.Statistics expressionCacheStatistics) {
+        this.expressionCacheStatistics = expressionCacheStatistics;
+    }
+
+    private ExpressionCache.Statistics functionMemoStatistics;
+    public ExpressionCache.Statistics getFunctionMemoStatistics() {
+        return functionMemoStatistics;
+    }
+    public void setFunctionMemoStatistics(ExpressionCache.Statistics functionMemoStatistics) {
+        this.functionMemoStatistics = functionMemoStatistics;
+    }
+
+    private Profile profile;
+    public Profile getProfile() {
+        return profile;
+    }
+    public void setProfile(Profile profile) {
+        this.profile = profile;
+    }
+
+    private Set<String> skippedExpressions;
+    public Set<String> getSkippedExpressions() {
+        return skippedExpressions;
+    }
+    public void setSkippedExpressions(Set<String> skippedExpressions) {
+        this.skippedExpressions = skippedExpressions;
+    }
+
+    private List<Retrieve> skippedRetrieves;
+    public List<Retrieve> getSkippedRetrieves() {
+        return skippedRetrieves;
+    }
+    public void setSkippedRetrieves(List<Retrieve> skippedRetrieves) {
+        this.skippedRetrieves = skippedRetrieves;
+    }
+
+    private Object contextValue;
+    public Object getContextValue() {
+        return contextValue;
+    }
+    public void setContextValue(Object contextValue) {
+        this.contextValue = contextValue;
+    }
+
 }
\ No newline at end of file
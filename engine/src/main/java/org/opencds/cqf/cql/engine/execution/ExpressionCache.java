@@ -0,0 +1,227 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.cqframework.cql.elm.execution.VersionedIdentifier;
+
+/**
+ * Caches the results of expression definitions for a Context, keyed by library and definition name. A cache is
+ * owned by a single Context and is not thread-safe. Three strategies are provided:
+ *
+ * unbounded() keeps every result until the cache is cleared, which the engine does between evaluations.
+ * leastRecentlyUsed(maximumSize) keeps at most maximumSize results, evicting the least recently used.
+ * weighted(maximumWeight) bounds the total estimated size of the results (see estimateWeight()), evicting the
+ * least recently used.
+ *
+ * Pinned definitions are never evicted; pins are part of the cache's configuration and survive clear().
+ */
+public class ExpressionCache {
+
+    public static ExpressionCache unbounded() {
+        return new ExpressionCache(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    public static ExpressionCache leastRecentlyUsed(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1.");
+        }
+
+        return new ExpressionCache(maximumSize, Long.MAX_VALUE);
+    }
+
+    public static ExpressionCache weighted(long maximumWeight) {
+        if (maximumWeight < 1) {
+            throw new IllegalArgumentException("maximumWeight must be at least 1.");
+        }
+
+        return new ExpressionCache(Long.MAX_VALUE, maximumWeight);
+    }
+
+    /**
+     * A snapshot of the hit, miss and eviction counts of a cache.
+     */
+    public static class Statistics {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+
+        public Statistics(long hitCount, long missCount, long evictionCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+    }
+
+    private static class Key {
+        private final VersionedIdentifier libraryId;
+        private final String name;
+        private final int hash;
+
+        Key(VersionedIdentifier libraryId, String name) {
+            this.libraryId = libraryId;
+            this.name = name;
+            this.hash = Objects.hash(libraryId, name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+            return Objects.equals(name, key.name) && Objects.equals(libraryId, key.libraryId);
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Key> pinned = new HashSet<>();
+    private final long maximumSize;
+    private final long maximumWeight;
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    protected ExpressionCache(long maximumSize, long maximumWeight) {
+        this.maximumSize = maximumSize;
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Pins the result of a definition so that it is never evicted.
+     */
+    public ExpressionCache pin(VersionedIdentifier libraryId, String name) {
+        pinned.add(new Key(libraryId, name));
+        return this;
+    }
+
+    public boolean isPinned(VersionedIdentifier libraryId, String name) {
+        return pinned.contains(new Key(libraryId, name));
+    }
+
+    public boolean contains(VersionedIdentifier libraryId, String name) {
+        return entries.containsKey(new Key(libraryId, name));
+    }
+
+    /**
+     * Returns the cached result, counting a hit. Use contains() first, since null is a valid result.
+     */
+    public Object get(VersionedIdentifier libraryId, String name) {
+        Entry entry = entries.get(new Key(libraryId, name));
+        if (entry == null) {
+            return null;
+        }
+
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Caches the result of an evaluated definition, counting a miss, and evicts as necessary to stay within bounds.
+     */
+    public void put(VersionedIdentifier libraryId, String name, Object value) {
+        missCount++;
+        Entry entry = new Entry(value, maximumWeight == Long.MAX_VALUE ? 0 : estimateWeight(value));
+        Entry previous = entries.put(new Key(libraryId, name), entry);
+        weight += entry.weight - (previous != null ? previous.weight : 0);
+
+        if (entries.size() > maximumSize || weight > maximumWeight) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        // Entries iterate from least to most recently used
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maximumSize || weight > maximumWeight) && iterator.hasNext()) {
+            Map.Entry<Key, Entry> eldest = iterator.next();
+            if (pinned.contains(eldest.getKey())) {
+                continue;
+            }
+
+            weight -= eldest.getValue().weight;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Estimates the size of a result as the number of values it holds: one for a single value, or one plus the
+     * number of elements for a list. Retrieve results dominate, so this is close enough to bound memory use.
+     */
+    protected long estimateWeight(Object value) {
+        if (value instanceof Collection) {
+            return 1 + ((Collection<?>) value).size();
+        }
+
+        if (value instanceof Iterable) {
+            long weight = 1;
+            for (Iterator<?> iterator = ((Iterable<?>) value).iterator(); iterator.hasNext(); iterator.next()) {
+                weight++;
+            }
+            return weight;
+        }
+
+        return 1;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes every cached result. Pins and statistics are kept.
+     */
+    public void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(hitCount, missCount, evictionCount);
+    }
+
+    public void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+}
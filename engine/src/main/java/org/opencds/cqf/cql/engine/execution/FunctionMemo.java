@@ -0,0 +1,150 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.cqframework.cql.elm.execution.FunctionDef;
+
+/**
+ * Remembers the results of calls to pure functions (see LibraryLinker) for a Context, keyed by the function and its
+ * arguments. Arguments match when they are the same instance, or equal values of the immutable system types
+ * (String, Boolean, Integer, Long and BigDecimal, where BigDecimal also compares scale). Runtime and model types
+ * are matched by identity only, since their equals() is not CQL equivalence; conversions like FHIRHelpers.ToConcept
+ * are called with the same model instances repeatedly, so identity is enough for them. At most maximumSize results
+ * are kept, evicting the least recently used. A memo is owned by a single Context and is not thread-safe.
+ */
+public class FunctionMemo {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private static class Key {
+        private final FunctionDef functionDef;
+        private final Object[] arguments;
+        private final int hash;
+
+        Key(FunctionDef functionDef, List<Object> arguments) {
+            this.functionDef = functionDef;
+            this.arguments = arguments.toArray();
+            int hash = System.identityHashCode(functionDef);
+            for (Object argument : this.arguments) {
+                hash = 31 * hash + (isValue(argument) ? argument.hashCode() : System.identityHashCode(argument));
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+            if (functionDef != key.functionDef || arguments.length != key.arguments.length) {
+                return false;
+            }
+
+            for (int i = 0; i < arguments.length; i++) {
+                Object argument = arguments[i];
+                if (argument != key.arguments[i] && !(isValue(argument) && argument.equals(key.arguments[i]))) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static boolean isValue(Object argument) {
+            return argument instanceof String || argument instanceof Boolean || argument instanceof Integer
+                || argument instanceof Long || argument instanceof BigDecimal;
+        }
+    }
+
+    // Distinguishes a remembered null result from a missing entry
+    private static final Object NULL_RESULT = new Object();
+
+    private final int maximumSize;
+    private final LinkedHashMap<Key, Object> results;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public FunctionMemo() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public FunctionMemo(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1.");
+        }
+
+        this.maximumSize = maximumSize;
+        this.results = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() > FunctionMemo.this.maximumSize) {
+                    evictionCount++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the remembered result of calling the function with the arguments, or calls it through the evaluator
+     * and remembers the result.
+     */
+    public Object get(FunctionDef functionDef, List<Object> arguments, Supplier<Object> evaluator) {
+        Key key = new Key(functionDef, arguments);
+        Object result = results.get(key);
+        if (result != null) {
+            hitCount++;
+            return result == NULL_RESULT ? null : result;
+        }
+
+        missCount++;
+        result = evaluator.get();
+        results.put(key, result == null ? NULL_RESULT : result);
+        return result;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * Removes every remembered result. Statistics are kept.
+     */
+    public void clear() {
+        results.clear();
+    }
+
+    public ExpressionCache.Statistics getStatistics() {
+        return new ExpressionCache.Statistics(hitCount, missCount, evictionCount);
+    }
+
+    public void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+}
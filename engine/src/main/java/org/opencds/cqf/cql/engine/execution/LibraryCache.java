@@ -0,0 +1,151 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.VersionedIdentifier;
+
+/**
+ * A thread-safe cache of loaded and validated libraries, keyed by the full VersionedIdentifier (system, id and
+ * version) the library was requested with. The cache holds at most maximumSize libraries; when that is exceeded the
+ * least recently used library is evicted. A lookup is a single concurrent map read, so hits are cheap enough to take
+ * on every evaluation.
+ *
+ * A cached library is linked to the libraries it includes, so invalidating a library also invalidates every
+ * cached library that includes it, directly or transitively; they are reloaded and relinked against the new copy.
+ */
+public class LibraryCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 500;
+
+    private static class Entry {
+        private final Library library;
+        private volatile long lastAccess;
+
+        Entry(Library library, long lastAccess) {
+            this.library = library;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final Map<VersionedIdentifier, Entry> libraries = new ConcurrentHashMap<>();
+    // Maps a library to the libraries that were put with it as an include
+    private final Map<VersionedIdentifier, Set<VersionedIdentifier>> includers = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final int maximumSize;
+
+    public LibraryCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public LibraryCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1.");
+        }
+
+        this.maximumSize = maximumSize;
+    }
+
+    public Library get(VersionedIdentifier libraryIdentifier) {
+        Entry entry = libraries.get(libraryIdentifier);
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+
+        hitCount.increment();
+        entry.lastAccess = clock.incrementAndGet();
+        return entry.library;
+    }
+
+    public void put(VersionedIdentifier libraryIdentifier, Library library) {
+        put(libraryIdentifier, library, Collections.emptyList());
+    }
+
+    public void put(VersionedIdentifier libraryIdentifier, Library library, Collection<VersionedIdentifier> includes) {
+        VersionedIdentifier key = copy(libraryIdentifier);
+        for (VersionedIdentifier include : includes) {
+            includers.computeIfAbsent(copy(include), x -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+
+        libraries.put(key, new Entry(library, clock.incrementAndGet()));
+
+        while (libraries.size() > maximumSize) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    // Copies the key so later changes to the caller's identifier can't corrupt the maps
+    private static VersionedIdentifier copy(VersionedIdentifier libraryIdentifier) {
+        return new VersionedIdentifier()
+            .withSystem(libraryIdentifier.getSystem())
+            .withId(libraryIdentifier.getId())
+            .withVersion(libraryIdentifier.getVersion());
+    }
+
+    private synchronized void evictLeastRecentlyUsed() {
+        Map.Entry<VersionedIdentifier, Entry> eldest = null;
+        for (Map.Entry<VersionedIdentifier, Entry> candidate : libraries.entrySet()) {
+            if (eldest == null || candidate.getValue().lastAccess < eldest.getValue().lastAccess) {
+                eldest = candidate;
+            }
+        }
+
+        if (eldest != null && libraries.size() > maximumSize && libraries.remove(eldest.getKey(), eldest.getValue())) {
+            evictionCount.increment();
+        }
+    }
+
+    public boolean contains(VersionedIdentifier libraryIdentifier) {
+        return libraries.containsKey(libraryIdentifier);
+    }
+
+    public void invalidate(VersionedIdentifier libraryIdentifier) {
+        Deque<VersionedIdentifier> pending = new ArrayDeque<>();
+        pending.push(libraryIdentifier);
+        while (!pending.isEmpty()) {
+            VersionedIdentifier invalidated = pending.pop();
+            libraries.remove(invalidated);
+            Set<VersionedIdentifier> dependents = includers.remove(invalidated);
+            if (dependents != null) {
+                dependents.forEach(pending::push);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        libraries.clear();
+        includers.clear();
+    }
+
+    public int size() {
+        return libraries.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+}
@@ -0,0 +1,236 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.cqframework.cql.elm.execution.CodeDef;
+import org.cqframework.cql.elm.execution.CodeSystemDef;
+import org.cqframework.cql.elm.execution.ConceptDef;
+import org.cqframework.cql.elm.execution.ExpressionDef;
+import org.cqframework.cql.elm.execution.FunctionDef;
+import org.cqframework.cql.elm.execution.IncludeDef;
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.ParameterDef;
+import org.cqframework.cql.elm.execution.ValueSetDef;
+
+/**
+ * An immutable index of the definitions in a library by name, so that resolving a reference is a hash lookup rather
+ * than a scan of the library's definition lists. Indexes are built once per library instance and shared by every
+ * context that evaluates that library; use LibraryIndex.of() to get the index for a library.
+ *
+ * The index also records whether the engine has prepared its library (folded, linked and compiled it), so that the
+ * preparation runs once per library instance however many engines, threads or cache reloads load that instance, and
+ * keeps the library's most recently used demand analyses (see DemandAnalysis).
+ */
+public class LibraryIndex {
+
+    private static final int MAX_DEMAND_ANALYSES = 32;
+
+    private final Map<String, ExpressionDef> expressions;
+    private final Map<String, List<FunctionDef>> functions;
+    private final Map<String, CodeDef> codes;
+    private final Map<String, ConceptDef> concepts;
+    private final Map<String, ValueSetDef> valueSets;
+    private final Map<String, CodeSystemDef> codeSystems;
+    private final Map<String, IncludeDef> includes;
+    private final Map<String, ParameterDef> parameters;
+    // Guarded by this index's monitor
+    private boolean isPrepared;
+    // The most recently used demand analyses of the library, by root set; guarded by the map's monitor
+    private final Map<Set<String>, DemandAnalysis> demandAnalyses = new LinkedHashMap<Set<String>, DemandAnalysis>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Set<String>, DemandAnalysis> eldest) {
+            return size() > MAX_DEMAND_ANALYSES;
+        }
+    };
+
+    private LibraryIndex(Library library) {
+        Map<String, ExpressionDef> expressions = new HashMap<>();
+        Map<String, List<FunctionDef>> functions = new HashMap<>();
+        if (library.getStatements() != null) {
+            for (ExpressionDef expressionDef : library.getStatements().getDef()) {
+                // The first definition with a given name wins, consistent with a scan of the statements
+                expressions.putIfAbsent(expressionDef.getName(), expressionDef);
+                if (expressionDef instanceof FunctionDef) {
+                    functions.computeIfAbsent(expressionDef.getName(), x -> new ArrayList<>()).add((FunctionDef) expressionDef);
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<FunctionDef>> entry : functions.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+
+        this.expressions = Collections.unmodifiableMap(expressions);
+        this.functions = Collections.unmodifiableMap(functions);
+
+        Map<String, CodeDef> codes = new HashMap<>();
+        if (library.getCodes() != null) {
+            for (CodeDef codeDef : library.getCodes().getDef()) {
+                codes.putIfAbsent(codeDef.getName(), codeDef);
+            }
+        }
+        this.codes = Collections.unmodifiableMap(codes);
+
+        Map<String, ConceptDef> concepts = new HashMap<>();
+        if (library.getConcepts() != null) {
+            for (ConceptDef conceptDef : library.getConcepts().getDef()) {
+                concepts.putIfAbsent(conceptDef.getName(), conceptDef);
+            }
+        }
+        this.concepts = Collections.unmodifiableMap(concepts);
+
+        Map<String, ValueSetDef> valueSets = new HashMap<>();
+        if (library.getValueSets() != null) {
+            for (ValueSetDef valueSetDef : library.getValueSets().getDef()) {
+                valueSets.putIfAbsent(valueSetDef.getName(), valueSetDef);
+            }
+        }
+        this.valueSets = Collections.unmodifiableMap(valueSets);
+
+        Map<String, CodeSystemDef> codeSystems = new HashMap<>();
+        if (library.getCodeSystems() != null) {
+            for (CodeSystemDef codeSystemDef : library.getCodeSystems().getDef()) {
+                codeSystems.putIfAbsent(codeSystemDef.getName(), codeSystemDef);
+            }
+        }
+        this.codeSystems = Collections.unmodifiableMap(codeSystems);
+
+        Map<String, IncludeDef> includes = new HashMap<>();
+        if (library.getIncludes() != null) {
+            for (IncludeDef includeDef : library.getIncludes().getDef()) {
+                includes.putIfAbsent(includeDef.getLocalIdentifier(), includeDef);
+            }
+        }
+        this.includes = Collections.unmodifiableMap(includes);
+
+        Map<String, ParameterDef> parameters = new HashMap<>();
+        if (library.getParameters() != null) {
+            for (ParameterDef parameterDef : library.getParameters().getDef()) {
+                parameters.putIfAbsent(parameterDef.getName(), parameterDef);
+            }
+        }
+        this.parameters = Collections.unmodifiableMap(parameters);
+    }
+
+    public ExpressionDef getExpressionDef(String name) {
+        return expressions.get(name);
+    }
+
+    public List<FunctionDef> getFunctionDefs(String name) {
+        List<FunctionDef> result = functions.get(name);
+        return result != null ? result : Collections.emptyList();
+    }
+
+    public CodeDef getCodeDef(String name) {
+        return codes.get(name);
+    }
+
+    public ConceptDef getConceptDef(String name) {
+        return concepts.get(name);
+    }
+
+    public ValueSetDef getValueSetDef(String name) {
+        return valueSets.get(name);
+    }
+
+    public CodeSystemDef getCodeSystemDef(String name) {
+        return codeSystems.get(name);
+    }
+
+    public IncludeDef getIncludeDef(String localIdentifier) {
+        return includes.get(localIdentifier);
+    }
+
+    public ParameterDef getParameterDef(String name) {
+        return parameters.get(name);
+    }
+
+    DemandAnalysis getDemandAnalysis(Set<String> roots, Function<Set<String>, DemandAnalysis> analysis) {
+        synchronized (demandAnalyses) {
+            DemandAnalysis result = demandAnalyses.get(roots);
+            if (result == null) {
+                result = analysis.apply(roots);
+                demandAnalyses.put(Collections.unmodifiableSet(roots), result);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Runs the passes that prepare this index's library for evaluation, unless they have already completed. Callers
+     * preparing the same library concurrently wait for the first to finish; if the passes throw, the next caller
+     * runs them again.
+     *
+     * @return true if the passes ran in this call
+     */
+    synchronized boolean prepare(Runnable passes) {
+        if (isPrepared) {
+            return false;
+        }
+
+        passes.run();
+        isPrepared = true;
+        return true;
+    }
+
+    // Indexes are keyed by library identity (Library.equals is a deep comparison) and held weakly, so an index
+    // goes away with its library. The index itself must never reference the library, or it would never be collected.
+    private static class LibraryReference extends WeakReference<Library> {
+        private final int hash;
+
+        LibraryReference(Library library, ReferenceQueue<Library> queue) {
+            super(library, queue);
+            this.hash = System.identityHashCode(library);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+
+            if (!(other instanceof LibraryReference)) {
+                return false;
+            }
+
+            Library library = get();
+            return library != null && library == ((LibraryReference) other).get();
+        }
+    }
+
+    private static final Map<LibraryReference, LibraryIndex> indexes = new HashMap<>();
+    private static final ReferenceQueue<Library> collectedLibraries = new ReferenceQueue<>();
+
+    public static synchronized LibraryIndex of(Library library) {
+        Reference<? extends Library> collected;
+        while ((collected = collectedLibraries.poll()) != null) {
+            indexes.remove(collected);
+        }
+
+        LibraryIndex index = indexes.get(new LibraryReference(library, null));
+        if (index == null) {
+            index = new LibraryIndex(library);
+            indexes.put(new LibraryReference(library, collectedLibraries), index);
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,392 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.cqframework.cql.elm.execution.AliasedQuerySource;
+import org.cqframework.cql.elm.execution.ByExpression;
+import org.cqframework.cql.elm.execution.ExpressionDef;
+import org.cqframework.cql.elm.execution.Filter;
+import org.cqframework.cql.elm.execution.FunctionDef;
+import org.cqframework.cql.elm.execution.IntervalTypeSpecifier;
+import org.cqframework.cql.elm.execution.LetClause;
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.ListTypeSpecifier;
+import org.cqframework.cql.elm.execution.NamedTypeSpecifier;
+import org.cqframework.cql.elm.execution.OperandDef;
+import org.cqframework.cql.elm.execution.Query;
+import org.cqframework.cql.elm.execution.RelationshipClause;
+import org.cqframework.cql.elm.execution.Retrieve;
+import org.cqframework.cql.elm.execution.SortByItem;
+import org.cqframework.cql.elm.execution.TypeSpecifier;
+import org.opencds.cqf.cql.engine.elm.execution.AliasRefEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.ExpressionDefEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.ExpressionRefEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.FunctionRefEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.OperandRefEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.QueryLetRefEvaluator;
+
+/**
+ * Binds the expression and function references of a loaded library to their targets, so that evaluating a
+ * reference does not have to resolve it by name. A function reference is only bound when the overload can be
+ * chosen statically: either it is the only overload with the right number of operands, or the signature recorded
+ * in the ELM matches exactly one overload. References that cannot be bound are left to be resolved at run time,
+ * which also preserves the run time error for references that cannot be resolved at all. Operand references are
+ * bound to the position of the operand in the function's operand list, which is its slot in the call's window, and
+ * alias and let references to the slots their queries push them to in the window of the enclosing definition or call.
+ * Function references are marked when their target is pure, so results can be remembered by argument. Finally,
+ * definitions are annotated with the definitions they depend on, and those whose result is the same in every
+ * context are marked so they can be shared across a batch.
+ */
+class LibraryLinker {
+
+    private LibraryLinker() {
+    }
+
+    /**
+     * @param library the library to link
+     * @param includedLibraries the libraries included by the library, by local identifier
+     */
+    static void link(Library library, Map<String, Library> includedLibraries) {
+        ElmWalker.walk(library, node -> {
+            if (node instanceof FunctionRefEvaluator) {
+                FunctionRefEvaluator functionRef = (FunctionRefEvaluator) node;
+                Library target = resolveLibrary(library, includedLibraries, functionRef.getLibraryName());
+                if (target != null) {
+                    FunctionDef functionDef = resolveFunctionDef(LibraryIndex.of(target), functionRef);
+                    if (functionDef != null) {
+                        functionRef.bind(functionRef.getLibraryName() != null ? target : null, functionDef);
+                    }
+                }
+            }
+            else if (node instanceof ExpressionRefEvaluator) {
+                ExpressionRefEvaluator expressionRef = (ExpressionRefEvaluator) node;
+                Library target = resolveLibrary(library, includedLibraries, expressionRef.getLibraryName());
+                if (target != null) {
+                    ExpressionDef expressionDef = LibraryIndex.of(target).getExpressionDef(expressionRef.getName());
+                    if (expressionDef != null) {
+                        expressionRef.bind(expressionRef.getLibraryName() != null ? target : null, expressionDef);
+                    }
+                }
+            }
+
+            return true;
+        });
+
+        Map<ExpressionDef, Boolean> pureDefs = new IdentityHashMap<>();
+        ElmWalker.walk(library, node -> {
+            if (node instanceof FunctionRefEvaluator) {
+                FunctionDef target = ((FunctionRefEvaluator) node).getBoundFunctionDef();
+                ((FunctionRefEvaluator) node).bindPure(target != null && isPure(target, pureDefs));
+            }
+
+            return true;
+        });
+
+        if (library.getStatements() != null) {
+            Map<ExpressionDef, Boolean> independentDefs = new IdentityHashMap<>();
+            for (ExpressionDef expressionDef : library.getStatements().getDef()) {
+                if (expressionDef instanceof FunctionDef) {
+                    linkOperands((FunctionDef) expressionDef);
+                    List<String> operandNames = new ArrayList<>();
+                    for (OperandDef operand : ((FunctionDef) expressionDef).getOperand()) {
+                        operandNames.add(operand.getName());
+                    }
+                    linkSlots(expressionDef.getExpression(), operandNames);
+                }
+                else if (expressionDef instanceof ExpressionDefEvaluator) {
+                    linkSlots(expressionDef.getExpression(), new ArrayList<>());
+                    ((ExpressionDefEvaluator) expressionDef).bindContextIndependent(isContextIndependent(expressionDef, independentDefs));
+                    ((ExpressionDefEvaluator) expressionDef).bindDependencies(collectDependencies(expressionDef));
+                }
+            }
+        }
+    }
+
+    /**
+     * A definition is pure if its result depends only on its arguments and the evaluation it is part of: it is not
+     * external, does not retrieve data or read the clock, does not report messages, and only references pure
+     * definitions. Unbound references are resolved at run time and are treated as impure.
+     */
+    private static boolean isPure(ExpressionDef expressionDef, Map<ExpressionDef, Boolean> pureDefs) {
+        Boolean result = pureDefs.get(expressionDef);
+        if (result != null) {
+            return result;
+        }
+
+        // Guards against cycles, which CQL does not allow anyway
+        pureDefs.put(expressionDef, false);
+
+        boolean isPure = !(expressionDef instanceof FunctionDef && Boolean.TRUE.equals(((FunctionDef) expressionDef).isExternal()));
+        if (isPure) {
+            boolean[] isImpure = { false };
+            ElmWalker.walk(expressionDef.getExpression(), node -> {
+                if (node instanceof Retrieve || SharedExpressionCache.isContextDependent(node)) {
+                    isImpure[0] = true;
+                }
+                else if (node instanceof FunctionRefEvaluator) {
+                    FunctionDef target = ((FunctionRefEvaluator) node).getBoundFunctionDef();
+                    isImpure[0] = target == null || !isPure(target, pureDefs);
+                }
+                else if (node instanceof ExpressionRefEvaluator) {
+                    ExpressionDef target = ((ExpressionRefEvaluator) node).getBoundExpressionDef();
+                    isImpure[0] = target == null || !isPure(target, pureDefs);
+                }
+
+                return !isImpure[0];
+            });
+            isPure = !isImpure[0];
+        }
+
+        pureDefs.put(expressionDef, isPure);
+        return isPure;
+    }
+
+    /**
+     * Collects the definitions referenced by a definition through bound references, following the bodies of the
+     * functions it calls. Unbound references are resolved at run time and are not included.
+     */
+    private static List<ExpressionDef> collectDependencies(ExpressionDef expressionDef) {
+        Set<ExpressionDef> dependencies = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<FunctionDef> visitedFunctions = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectDependencies(expressionDef.getExpression(), dependencies, visitedFunctions);
+        return new ArrayList<>(dependencies);
+    }
+
+    private static void collectDependencies(Object expression, Set<ExpressionDef> dependencies, Set<FunctionDef> visitedFunctions) {
+        ElmWalker.walk(expression, node -> {
+            if (node instanceof FunctionRefEvaluator) {
+                FunctionDef target = ((FunctionRefEvaluator) node).getBoundFunctionDef();
+                if (target != null && visitedFunctions.add(target)) {
+                    collectDependencies(target.getExpression(), dependencies, visitedFunctions);
+                }
+            }
+            else if (node instanceof ExpressionRefEvaluator) {
+                ExpressionDef target = ((ExpressionRefEvaluator) node).getBoundExpressionDef();
+                if (target != null) {
+                    dependencies.add(target);
+                }
+            }
+
+            return true;
+        });
+    }
+
+    /**
+     * A definition is context independent if it is in the Population or Unfiltered context, does not depend on the
+     * evaluation time or have side effects (see SharedExpressionCache.isContextDependent), and everything it
+     * references is context independent too. Functions it calls must be bound and have context independent bodies.
+     */
+    private static boolean isContextIndependent(ExpressionDef expressionDef, Map<ExpressionDef, Boolean> independentDefs) {
+        Boolean result = independentDefs.get(expressionDef);
+        if (result != null) {
+            return result;
+        }
+
+        // Guards against cycles, which CQL does not allow anyway
+        independentDefs.put(expressionDef, false);
+
+        boolean isIndependent = expressionDef instanceof FunctionDef
+            || "Population".equals(expressionDef.getContext()) || "Unfiltered".equals(expressionDef.getContext());
+        if (isIndependent) {
+            boolean[] isDependent = { false };
+            ElmWalker.walk(expressionDef.getExpression(), node -> {
+                if (SharedExpressionCache.isContextDependent(node)) {
+                    isDependent[0] = true;
+                }
+                else if (node instanceof FunctionRefEvaluator) {
+                    FunctionDef target = ((FunctionRefEvaluator) node).getBoundFunctionDef();
+                    isDependent[0] = target == null || !isContextIndependent(target, independentDefs);
+                }
+                else if (node instanceof ExpressionRefEvaluator) {
+                    ExpressionDef target = ((ExpressionRefEvaluator) node).getBoundExpressionDef();
+                    isDependent[0] = target == null || !isContextIndependent(target, independentDefs);
+                }
+
+                return !isDependent[0];
+            });
+            isIndependent = !isDependent[0];
+        }
+
+        independentDefs.put(expressionDef, isIndependent);
+        return isIndependent;
+    }
+
+    private static void linkOperands(FunctionDef functionDef) {
+        Map<String, Integer> operandIndexes = new HashMap<>();
+        for (int i = 0; i < functionDef.getOperand().size(); i++) {
+            operandIndexes.putIfAbsent(functionDef.getOperand().get(i).getName(), i);
+        }
+
+        ElmWalker.walk(functionDef.getExpression(), node -> {
+            if (node instanceof OperandRefEvaluator) {
+                Integer index = operandIndexes.get(((OperandRefEvaluator) node).getName());
+                if (index != null) {
+                    ((OperandRefEvaluator) node).bind(index);
+                }
+            }
+
+            return true;
+        });
+    }
+
+    /**
+     * Binds the alias and let references under a node to their slots in the window of the enclosing definition or
+     * function call. The names of the variables the enclosing scopes push, in slot order, are given: a query pushes
+     * its aliases and then its lets while its clauses are evaluated, a relationship pushes its alias on top while
+     * its condition is evaluated, and a sort or filter pushes one variable for its expression. A name that more
+     * than one enclosing scope pushes is left to be resolved by name, so that the innermost variable wins.
+     */
+    private static void linkSlots(Object node, List<String> scope) {
+        if (node == null) {
+            return;
+        }
+
+        if (node instanceof Query) {
+            Query query = (Query) node;
+            for (AliasedQuerySource source : query.getSource()) {
+                linkSlots(source.getExpression(), scope);
+            }
+
+            List<String> rowScope = new ArrayList<>(scope);
+            for (AliasedQuerySource source : query.getSource()) {
+                rowScope.add(source.getAlias());
+            }
+            for (LetClause let : query.getLet()) {
+                rowScope.add(let.getIdentifier());
+            }
+            for (LetClause let : query.getLet()) {
+                linkSlots(let.getExpression(), rowScope);
+            }
+            for (RelationshipClause relationship : query.getRelationship()) {
+                linkSlots(relationship.getExpression(), rowScope);
+                linkSlots(relationship.getSuchThat(), push(rowScope, relationship.getAlias()));
+            }
+            linkSlots(query.getWhere(), rowScope);
+            if (query.getReturn() != null) {
+                linkSlots(query.getReturn().getExpression(), rowScope);
+            }
+            if (query.getSort() != null) {
+                for (SortByItem byItem : query.getSort().getBy()) {
+                    if (byItem instanceof ByExpression) {
+                        linkSlots(((ByExpression) byItem).getExpression(), push(scope, null));
+                    }
+                }
+            }
+            return;
+        }
+
+        if (node instanceof Filter) {
+            Filter filter = (Filter) node;
+            linkSlots(filter.getSource(), scope);
+            linkSlots(filter.getCondition(), filter.getScope() != null ? push(scope, filter.getScope()) : scope);
+            return;
+        }
+
+        if (node instanceof AliasRefEvaluator) {
+            int slot = getSlot(scope, ((AliasRefEvaluator) node).getName());
+            if (slot >= 0) {
+                ((AliasRefEvaluator) node).bind(slot);
+            }
+        }
+        else if (node instanceof QueryLetRefEvaluator) {
+            int slot = getSlot(scope, ((QueryLetRefEvaluator) node).getName());
+            if (slot >= 0) {
+                ((QueryLetRefEvaluator) node).bind(slot);
+            }
+        }
+
+        for (Object child : ElmWalker.getChildren(node)) {
+            linkSlots(child, scope);
+        }
+    }
+
+    private static List<String> push(List<String> scope, String name) {
+        List<String> result = new ArrayList<>(scope);
+        result.add(name);
+        return result;
+    }
+
+    private static int getSlot(List<String> scope, String name) {
+        int slot = scope.indexOf(name);
+        return slot >= 0 && slot == scope.lastIndexOf(name) ? slot : -1;
+    }
+
+    private static Library resolveLibrary(Library library, Map<String, Library> includedLibraries, String libraryName) {
+        return libraryName == null ? library : includedLibraries.get(libraryName);
+    }
+
+    private static FunctionDef resolveFunctionDef(LibraryIndex index, FunctionRefEvaluator functionRef) {
+        List<FunctionDef> candidates = new ArrayList<>();
+        for (FunctionDef functionDef : index.getFunctionDefs(functionRef.getName())) {
+            if (functionDef.getOperand().size() == functionRef.getOperand().size()) {
+                candidates.add(functionDef);
+            }
+        }
+
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        List<TypeSpecifier> signature = functionRef.getSignature();
+        if (signature.isEmpty() || signature.size() != functionRef.getOperand().size()) {
+            return null;
+        }
+
+        FunctionDef result = null;
+        for (FunctionDef candidate : candidates) {
+            if (matches(signature, candidate.getOperand())) {
+                if (result != null) {
+                    return null;
+                }
+                result = candidate;
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean matches(List<TypeSpecifier> signature, List<OperandDef> operands) {
+        for (int i = 0; i < signature.size(); i++) {
+            OperandDef operand = operands.get(i);
+            boolean isMatch = operand.getOperandTypeSpecifier() != null
+                ? isSameType(signature.get(i), operand.getOperandTypeSpecifier())
+                : signature.get(i) instanceof NamedTypeSpecifier
+                    && isSameType(((NamedTypeSpecifier) signature.get(i)).getName(), operand.getOperandType());
+            if (!isMatch) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // The generated equals() also compares locators and local ids, so type specifiers are compared by structure here.
+    // Anything other than named, list and interval types is treated as not matching, leaving the choice to run time.
+    private static boolean isSameType(TypeSpecifier left, TypeSpecifier right) {
+        if (left instanceof NamedTypeSpecifier && right instanceof NamedTypeSpecifier) {
+            return isSameType(((NamedTypeSpecifier) left).getName(), ((NamedTypeSpecifier) right).getName());
+        }
+
+        if (left instanceof ListTypeSpecifier && right instanceof ListTypeSpecifier) {
+            return isSameType(((ListTypeSpecifier) left).getElementType(), ((ListTypeSpecifier) right).getElementType());
+        }
+
+        if (left instanceof IntervalTypeSpecifier && right instanceof IntervalTypeSpecifier) {
+            return isSameType(((IntervalTypeSpecifier) left).getPointType(), ((IntervalTypeSpecifier) right).getPointType());
+        }
+
+        return false;
+    }
+
+    private static boolean isSameType(QName left, QName right) {
+        return left != null && left.equals(right);
+    }
+}
@@ -0,0 +1,70 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.function.Function;
+
+import org.opencds.cqf.cql.engine.exception.CqlException;
+
+/**
+ * Streams the results of a population evaluation. Context values are pulled from the source lazily, so that no more
+ * than maxInFlight evaluations are submitted to the executor at any time, and results are returned in completion order.
+ */
+class PopulationEvaluationIterator implements Iterator<EvaluationResult> {
+
+    private Iterator<?> contextValues;
+    private CompletionService<EvaluationResult> completionService;
+    private Function<Object, EvaluationResult> evaluator;
+    private int maxInFlight;
+    private int inFlight;
+
+    public PopulationEvaluationIterator(Iterator<?> contextValues, Executor executor, int maxInFlight, Function<Object, EvaluationResult> evaluator) {
+        this.contextValues = contextValues;
+        this.completionService = new ExecutorCompletionService<>(executor);
+        this.maxInFlight = maxInFlight;
+        this.evaluator = evaluator;
+    }
+
+    private void fill() {
+        while (inFlight < maxInFlight && contextValues.hasNext()) {
+            Object contextValue = contextValues.next();
+            completionService.submit(() -> evaluator.apply(contextValue));
+            inFlight++;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return inFlight > 0;
+    }
+
+    @Override
+    public EvaluationResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            EvaluationResult result = completionService.take().get();
+            inFlight--;
+            return result;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CqlException("Interrupted while waiting for population evaluation results.", e);
+        }
+        catch (ExecutionException e) {
+            inFlight--;
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new CqlException("Population evaluation failed.", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.opencds.cqf.cql.engine.execution;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+import org.cqframework.cql.elm.execution.ExpressionRef;
+import org.cqframework.cql.elm.execution.ParameterDef;
+import org.opencds.cqf.cql.engine.elm.execution.MessageEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.NowEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.RetrieveEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.TimeOfDayEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.TodayEvaluator;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+
+/**
+ * Holds definition results for a group of contexts that evaluate with the same parameters, so that each
+ * definition is evaluated once for the group rather than once per context. It is used for the context-independent
+ * definitions (Population and Unfiltered context defines, see LibraryLinker, and parameter defaults) of a
+ * population batch, and for all definitions of an evaluation whose definitions are run in parallel by forked
+ * contexts. The cache is thread-safe: the first context to need a result evaluates it and contexts on other threads
+ * wait for it. Results are shared between contexts and must be treated as immutable, as with the per-context
+ * expression cache.
+ *
+ * A cache is only valid for the parameters it was created with; Context drops it when its parameters change.
+ */
+public class SharedExpressionCache {
+
+    private static class Result {
+        private final Object value;
+        private final List<Object> evaluatedResources;
+
+        Result(Object value, List<Object> evaluatedResources) {
+            this.value = value;
+            this.evaluatedResources = evaluatedResources;
+        }
+    }
+
+    // Keyed by definition identity; the generated equals() and hashCode() are deep
+    private final Map<Object, FutureTask<Result>> results = new IdentityHashMap<>();
+    private final Map<ParameterDef, Boolean> independentParameters = new IdentityHashMap<>();
+
+    /**
+     * Returns the result of the definition, evaluating it in the given context if no context of the batch has yet.
+     * Resources retrieved while evaluating it are added to the evaluated resources of every context that uses it.
+     */
+    public Object get(Object definition, Context context, Supplier<Object> evaluator) {
+        FutureTask<Result> task;
+        boolean isOwner = false;
+        synchronized (results) {
+            task = results.get(definition);
+            if (task == null) {
+                task = new FutureTask<>(() -> {
+                    int evaluatedResourceCount = context.getEvaluatedResources().size();
+                    Object value = evaluator.get();
+                    List<Object> evaluatedResources = context.getEvaluatedResources();
+                    return new Result(value, new ArrayList<>(evaluatedResources.subList(evaluatedResourceCount, evaluatedResources.size())));
+                });
+                results.put(definition, task);
+                isOwner = true;
+            }
+        }
+
+        if (isOwner) {
+            task.run();
+        }
+
+        Result result;
+        try {
+            result = task.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new CqlException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CqlException(e);
+        }
+
+        if (!isOwner) {
+            context.getEvaluatedResources().addAll(result.evaluatedResources);
+        }
+
+        return result.value;
+    }
+
+    /**
+     * Whether the default of a parameter can be shared: it must not depend on the evaluation time, have side
+     * effects or retrieve data.
+     */
+    public boolean isContextIndependent(ParameterDef parameterDef) {
+        synchronized (independentParameters) {
+            Boolean result = independentParameters.get(parameterDef);
+            if (result == null) {
+                boolean[] isDependent = { false };
+                ElmWalker.walk(parameterDef.getDefault(), node -> {
+                    if (isContextDependent(node) || node instanceof ExpressionRef || node instanceof RetrieveEvaluator) {
+                        isDependent[0] = true;
+                    }
+                    return !isDependent[0];
+                });
+                result = !isDependent[0];
+                independentParameters.put(parameterDef, result);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Whether a node gives a different result per evaluation (the evaluation time) or has side effects (Message).
+     */
+    static boolean isContextDependent(Object node) {
+        return node instanceof NowEvaluator || node instanceof TodayEvaluator || node instanceof TimeOfDayEvaluator
+            || node instanceof MessageEvaluator;
+    }
+}
@@ -9,6 +9,19 @@ public interface ModelResolver {
     // Expected to return null whenever a path doesn't exist on the target.
     Object resolvePath(Object target, String path);
 
+    // Expected to return false, without throwing, whenever a path doesn't exist on the target.
+    // The default treats any path that resolves without an exception as existing; resolvers should override it
+    // with a check that does not resolve the value.
+    default boolean hasPath(Object target, String path) {
+        try {
+            resolvePath(target, path);
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
     Object getContextPath(String contextType, String targetType);
 
     Class<?> resolveType(String typeName);
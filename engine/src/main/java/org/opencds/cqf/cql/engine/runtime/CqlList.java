@@ -10,7 +10,6 @@ import org.opencds.cqf.cql.engine.elm.execution.EqualEvaluator;
 import org.opencds.cqf.cql.engine.elm.execution.EquivalentEvaluator;
 import org.opencds.cqf.cql.engine.exception.InvalidComparison;
 import org.opencds.cqf.cql.engine.execution.Context;
-import org.opencds.cqf.cql.engine.execution.Variable;
 
 public class CqlList {
     private Context context;
@@ -37,7 +36,7 @@ public class CqlList {
         public int compare(Object left, Object right) {
 
             try {
-                context.push(new Variable().withName(alias).withValue(left));
+                context.push(alias, left);
                 left = expression.evaluate(context);
             }
             finally {
@@ -45,7 +44,7 @@ public class CqlList {
             }
 
             try {
-                context.push(new Variable().withName(alias).withValue(right));
+                context.push(alias, right);
                 right = expression.evaluate(context);
             }
             finally {
@@ -79,6 +78,10 @@ public class CqlList {
     }
 
     public static Boolean equivalent(Iterable<?> left, Iterable<?> right) {
+        return equivalent(left, right, null);
+    }
+
+    public static Boolean equivalent(Iterable<?> left, Iterable<?> right, Context context) {
         Iterator<?> leftIterator = left.iterator();
         Iterator<?> rightIterator = right.iterator();
 
@@ -86,7 +89,7 @@ public class CqlList {
             Object leftObject = leftIterator.next();
             if (rightIterator.hasNext()) {
                 Object rightObject = rightIterator.next();
-                Boolean elementEquivalent = EquivalentEvaluator.equivalent(leftObject, rightObject);
+                Boolean elementEquivalent = EquivalentEvaluator.equivalent(leftObject, rightObject, context);
                 if (!elementEquivalent) {
                     return false;
                 }
@@ -98,6 +101,10 @@ public class CqlList {
     }
 
     public static Boolean equal(Iterable<?> left, Iterable<?> right) {
+        return equal(left, right, null);
+    }
+
+    public static Boolean equal(Iterable<?> left, Iterable<?> right, Context context) {
         Iterator<?> leftIterator = left.iterator();
         Iterator<?> rightIterator = right.iterator();
 
@@ -106,9 +113,9 @@ public class CqlList {
             if (rightIterator.hasNext()) {
                 Object rightObject = rightIterator.next();
                 if (leftObject instanceof Iterable && rightObject instanceof Iterable) {
-                    return equal((Iterable<?>) leftObject, (Iterable<?>) rightObject);
+                    return equal((Iterable<?>) leftObject, (Iterable<?>) rightObject, context);
                 }
-                Boolean elementEquals = EqualEvaluator.equal(leftObject, rightObject);
+                Boolean elementEquals = EqualEvaluator.equal(leftObject, rightObject, context);
                 if (elementEquals == null || !elementEquals) {
                     return elementEquals;
                 }
@@ -1,8 +1,13 @@
 package org.opencds.cqf.cql.engine.data;
 
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
 
 import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.Tuple;
 import org.testng.annotations.Test;
 
 public class SystemDataProviderTest {
@@ -16,4 +21,20 @@ public class SystemDataProviderTest {
         Object result = provider.resolvePath(date, "notapath");
         assertNull(result);
     }
+
+    @Test
+    public void hasPathReportsMissingPropertyWithoutThrowing() {
+        SystemDataProvider provider = new SystemDataProvider();
+
+        Date date = new Date(2019, 01, 01);
+        assertTrue(provider.hasPath(date, "precision"));
+        assertFalse(provider.hasPath(date, "notapath"));
+        assertFalse(provider.hasPath(null, "precision"));
+
+        LinkedHashMap<String, Object> elements = new LinkedHashMap<>();
+        elements.put("a", 1);
+        Tuple tuple = new Tuple().withElements(elements);
+        assertTrue(provider.hasPath(tuple, "a"));
+        assertFalse(provider.hasPath(tuple, "b"));
+    }
 }
@@ -4,23 +4,54 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.xml.bind.JAXBException;
 
+import org.cqframework.cql.cql2elm.CqlTranslator;
 import org.cqframework.cql.cql2elm.CqlTranslatorException;
 import org.cqframework.cql.cql2elm.CqlTranslatorOptions;
 import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
 import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
 import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.VersionedIdentifier;
+import org.opencds.cqf.cql.engine.debug.DebugAction;
+import org.opencds.cqf.cql.engine.debug.DebugLibraryResultEntry;
+import org.opencds.cqf.cql.engine.debug.DebugLocator;
+import org.opencds.cqf.cql.engine.debug.DebugMap;
+import org.opencds.cqf.cql.engine.debug.FlightRecorderEvent;
+import org.opencds.cqf.cql.engine.debug.Location;
+import org.opencds.cqf.cql.engine.debug.Profile;
+import org.opencds.cqf.cql.engine.elm.execution.ConstantEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.ExpressionDefEvaluator;
+import org.opencds.cqf.cql.engine.exception.CqlException;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.terminology.CodeSystemInfo;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
 public class CqlEngineTests extends TranslatingTestBase {
@@ -155,4 +186,688 @@ public class CqlEngineTests extends TranslatingTestBase {
         assertThat(result.forExpression("Y"), is(4));
         assertThat(result.forExpression("W"), is(15));
     }
+
+    @Test
+    public void test_linkedReferences_resolveAcrossLibraries() throws IOException, JAXBException {
+
+        Map<org.hl7.elm.r1.VersionedIdentifier, String> libraries = new HashMap<>();
+        libraries.put(this.toElmIdentifier("Common", "1.0.0"),
+            "library Common version '1.0.0'\ndefine Z:\n5+5\ndefine function Twice(x Integer): x * 2\n"
+            + "define function Label(x Integer): 'Integer'\ndefine function Label(x String): 'String'\n");
+        libraries.put(toElmIdentifier("Test", "1.0.0"),
+            "library Test version '1.0.0'\ninclude Common version '1.0.0' named \"Common\"\n"
+            + "define function Inc(x Integer): x + 1\ndefine X: Inc(\"Common\".Z)\n"
+            + "define Y: \"Common\".Twice(X)\ndefine W: \"Common\".Label('a') + \"Common\".Label(1)");
+
+        LibraryManager libraryManager = this.toLibraryManager(libraries);
+        List<CqlTranslatorException> errors = new ArrayList<>();
+        List<Library> executableLibraries = new ArrayList<>();
+        for (org.hl7.elm.r1.VersionedIdentifier id : libraries.keySet()) {
+            TranslatedLibrary translated = libraryManager.resolveLibrary(id, CqlTranslatorOptions.defaultOptions(), errors);
+            String xml = this.convertToXml(translated.getLibrary());
+            executableLibraries.add(this.readXml(xml));
+        }
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(executableLibraries));
+
+        for (int i = 0; i < 2; i++) {
+            EvaluationResult result = engine.evaluate("Test", new HashSet<>(Arrays.asList("X", "Y", "W")));
+            assertThat(result.forExpression("X"), is(11));
+            assertThat(result.forExpression("Y"), is(22));
+            assertThat(result.forExpression("W"), is("StringInteger"));
+        }
+    }
+
+    @Test
+    public void test_concurrentColdLoads_prepareEachLibraryOnce() throws Exception {
+        Map<org.hl7.elm.r1.VersionedIdentifier, String> libraries = new HashMap<>();
+        libraries.put(this.toElmIdentifier("Common", "1.0.0"),
+            "library Common version '1.0.0'\ndefine Z: 5 + 5\ndefine function Twice(x Integer): x * 2\n");
+        libraries.put(toElmIdentifier("Test", "1.0.0"),
+            "library Test version '1.0.0'\ninclude Common version '1.0.0' named \"Common\"\n"
+            + "define X: 2 * 3\ndefine Y: \"Common\".Twice(X)");
+
+        Map<String, Integer> loads = new HashMap<>();
+        List<Library> executableLibraries = this.translate(libraries);
+        LibraryLoader inMemoryLoader = new InMemoryLibraryLoader(executableLibraries);
+        LibraryLoader countingLoader = libraryIdentifier -> {
+            synchronized (loads) {
+                loads.merge(libraryIdentifier.getId(), 1, Integer::sum);
+            }
+            try {
+                // Keeps the other threads' cache misses in flight while this one loads
+                Thread.sleep(20);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return inMemoryLoader.load(libraryIdentifier);
+        };
+
+        CqlEngine engine = new CqlEngine(countingLoader, null, null,
+            EnumSet.of(CqlEngine.Options.EnableConstantFolding, CqlEngine.Options.EnableCompilation), new LibraryCache());
+        for (EvaluationResult result : evaluateConcurrently(engine, Arrays.asList("Test"), 8)) {
+            assertThat(result.forExpression("X"), is(6));
+            assertThat(result.forExpression("Y"), is(12));
+        }
+        assertEquals(loads.get("Test"), Integer.valueOf(1));
+        assertEquals(loads.get("Common"), Integer.valueOf(1));
+        // 5 + 5, 2 * 3 and the literal in x * 2
+        assertEquals(engine.getFoldedExpressionCount(), 3);
+
+        // With a cache of one library, loading either library evicts the other, so the threads reload and relink
+        // libraries that other threads are evaluating
+        CqlEngine evictingEngine = new CqlEngine(new InMemoryLibraryLoader(this.translate(libraries)), null, null,
+            EnumSet.of(CqlEngine.Options.EnableConstantFolding, CqlEngine.Options.EnableCompilation), new LibraryCache(1));
+        for (EvaluationResult result : evaluateConcurrently(evictingEngine, Arrays.asList("Test", "Common"), 8)) {
+            if (result.expressionResults.containsKey("Y")) {
+                assertThat(result.forExpression("Y"), is(12));
+            }
+            else {
+                assertThat(result.forExpression("Z"), is(10));
+            }
+        }
+        assertTrue(evictingEngine.getLibraryCache().getEvictionCount() > 0);
+        assertEquals(evictingEngine.getFoldedExpressionCount(), 3);
+    }
+
+    private List<Library> translate(Map<org.hl7.elm.r1.VersionedIdentifier, String> libraries) throws IOException, JAXBException {
+        LibraryManager libraryManager = this.toLibraryManager(libraries);
+        List<CqlTranslatorException> errors = new ArrayList<>();
+        List<Library> executableLibraries = new ArrayList<>();
+        for (org.hl7.elm.r1.VersionedIdentifier id : libraries.keySet()) {
+            TranslatedLibrary translated = libraryManager.resolveLibrary(id, CqlTranslatorOptions.defaultOptions(), errors);
+            executableLibraries.add(this.readXml(this.convertToXml(translated.getLibrary())));
+        }
+        return executableLibraries;
+    }
+
+    // Evaluates the libraries, round robin, from the given number of threads started together
+    private static List<EvaluationResult> evaluateConcurrently(CqlEngine engine, List<String> libraryNames, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<EvaluationResult>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                String libraryName = libraryNames.get(i % libraryNames.size());
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return engine.evaluate(libraryName);
+                }));
+            }
+            start.countDown();
+
+            List<EvaluationResult> results = new ArrayList<>();
+            for (Future<EvaluationResult> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_linkedOperands_resolveInNestedCallsAndQueries() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "define function Scale(x Integer, factor Integer): x * factor\n"
+            + "define function ScaleAll(xs List<Integer>, factor Integer): xs X return Scale(X, factor + 0)\n"
+            + "define Y: ScaleAll({ 1, 2, 3 }, 2)\n"
+            + "define Z: ({ 1, 2 }) A return ScaleAll({ A }, A)");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+
+        EvaluationResult result = engine.evaluate("Test");
+        assertThat(result.forExpression("Y"), is(Arrays.asList(2, 4, 6)));
+        assertThat(result.forExpression("Z"), is(Arrays.asList(Arrays.asList(1), Arrays.asList(4))));
+    }
+
+    @Test
+    public void test_linkedAliases_resolveInNestedQueriesAndDefinitions() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "define function Pairs(n Integer): ({ 1, 2 }) X let Y: X + n return all Tuple { x: X, y: Y }\n"
+            + "define Inner: ({ 10, 20 }) X let Doubled: X * 2 return Doubled\n"
+            + "define Outer: ({ 1, 2 }) X let Offset: X * 100 return Offset + Sum(Inner) + X\n"
+            + "define Nested: ({ 1, 2 }) A let B: A * 3\n"
+            + "    return (({ 5 }) C let D: C + A where exists (({ B }) E where E > A) return D + B)\n"
+            + "define Related: ({ 1, 2, 3 }) A let L: A + 1 with ({ 2, 3 }) R such that R = L return A\n"
+            + "define Shadowed: ({ 1, 2 }) X return (({ 10 }) X return X)\n"
+            + "define Called: (Pairs(5)) P return all P.y");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+        EvaluationResult result = engine.evaluate("Test");
+
+        assertThat(result.forExpression("Inner"), is(Arrays.asList(20, 40)));
+        // Inner is evaluated while Outer's X is pushed, and resolves its own X
+        assertThat(result.forExpression("Outer"), is(Arrays.asList(161, 262)));
+        assertThat(result.forExpression("Nested"), is(Arrays.asList(Arrays.asList(9), Arrays.asList(13))));
+        assertThat(result.forExpression("Related"), is(Arrays.asList(1, 2)));
+        assertThat(result.forExpression("Shadowed"), is(Arrays.asList(Arrays.asList(10))));
+        // The function's aliases and lets sit above its operand in the call's window
+        assertThat(result.forExpression("Called"), is(Arrays.asList(6, 7)));
+    }
+
+    @Test
+    public void test_population_resultPerContextValue() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\nparameter IntValue Integer\ndefine X:\nIntValue + 5");
+
+        LibraryLoader libraryLoader = new InMemoryLibraryLoader(Collections.singleton(library));
+
+        CqlEngine engine = new CqlEngine(libraryLoader);
+
+        Map<String,Object> parameters = new HashMap<>();
+        parameters.put("IntValue", 10);
+
+        List<String> patientIds = Arrays.asList("a", "b", "c", "d", "e");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Iterator<EvaluationResult> results = engine.evaluatePopulation(new VersionedIdentifier().withId("Test"), null, "Patient", patientIds, parameters, executor, 2);
+
+            Set<Object> seen = new HashSet<>();
+            while (results.hasNext()) {
+                EvaluationResult result = results.next();
+                assertThat(result.forExpression("X"), is(15));
+                seen.add(result.getContextValue());
+            }
+
+            assertEquals(seen, new HashSet<Object>(patientIds));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_population_sharesContextIndependentResults() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "parameter \"Range\" Interval<Integer> default Interval[1, 3]\n"
+            + "context Unfiltered\n"
+            + "define Shared: { 1, 2, end of \"Range\" }\n"
+            + "define Evaluated: Now()");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Iterator<EvaluationResult> results = engine.evaluatePopulation("Test", null, Arrays.asList("a", "b", "c"), null, executor);
+            Object shared = null;
+            while (results.hasNext()) {
+                EvaluationResult result = results.next();
+                assertThat(result.forExpression("Shared"), is(Arrays.asList(1, 2, 3)));
+                if (shared != null) {
+                    // The same result instance is handed to every context of the batch
+                    assertTrue(shared == result.forExpression("Shared"));
+                }
+                shared = result.forExpression("Shared");
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        assertTrue(((ExpressionDefEvaluator) LibraryIndex.of(library).getExpressionDef("Shared")).isContextIndependent());
+        assertFalse(((ExpressionDefEvaluator) LibraryIndex.of(library).getExpressionDef("Evaluated")).isContextIndependent());
+    }
+
+    @Test
+    public void test_expressionExecutor_evaluatesIndependentDefinitionsInParallel() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "context Unfiltered\n"
+            + "define function Twice(x Integer): x * 2\n"
+            + "define A: 1 + 1\n"
+            + "define B: Twice(A)\n"
+            + "define C: A + 3\n"
+            + "define D: B + C");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+        EvaluationResult sequential = engine.evaluate("Test");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            engine.setExpressionExecutor(executor);
+            EvaluationResult parallel = engine.evaluate("Test");
+            for (String expression : Arrays.asList("A", "B", "C", "D")) {
+                assertThat(parallel.forExpression(expression), is(sequential.forExpression(expression)));
+            }
+            assertThat(parallel.forExpression("D"), is(9));
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        List<?> dependencies = ((ExpressionDefEvaluator) LibraryIndex.of(library).getExpressionDef("D")).getDependencies();
+        assertEquals(dependencies.size(), 2);
+    }
+
+    @Test
+    public void test_expressionExecutor_runsIndependentDefinitionsConcurrently() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "codesystem \"CS\": 'http://cs'\n"
+            + "valueset \"First\": 'http://vs/1'\n"
+            + "valueset \"Second\": 'http://vs/2'\n"
+            + "code \"C\": '1' from \"CS\"\n"
+            + "context Unfiltered\n"
+            + "define A: \"C\" in \"First\"\n"
+            + "define B: \"C\" in \"Second\"\n"
+            + "define Both: A and B");
+
+        // Each membership test waits for the other, so the evaluation only completes if A and B run at the same time
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        TerminologyProvider terminologyProvider = new TerminologyProvider() {
+            @Override
+            public boolean in(Code code, ValueSetInfo valueSet) {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                    throw new IllegalStateException("A and B were not evaluated concurrently", e);
+                }
+                return true;
+            }
+
+            @Override
+            public Iterable<Code> expand(ValueSetInfo valueSet) {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public Code lookup(Code code, CodeSystemInfo codeSystem) {
+                return code;
+            }
+        };
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)), null, terminologyProvider);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            engine.setExpressionExecutor(executor);
+            assertThat(engine.evaluate("Test").forExpression("Both"), is(true));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void test_expressionExecutor_sharedWithPopulationExecutor() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "parameter IntValue Integer default 1\n"
+            + "define A: IntValue + 1\n"
+            + "define B: IntValue + 2\n"
+            + "define C: A + B");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+
+        // The population's evaluations occupy the pool's only thread while their definitions are queued behind them
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            engine.setExpressionExecutor(executor);
+            Iterator<EvaluationResult> results = engine.evaluatePopulation(new VersionedIdentifier().withId("Test"), null,
+                "Patient", Arrays.asList("a", "b", "c"), null, executor, 2);
+
+            int count = 0;
+            while (results.hasNext()) {
+                assertThat(results.next().forExpression("C"), is(5));
+                count++;
+            }
+            assertEquals(count, 3);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_evaluatePruned_reportsSkippedDefinitions() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "context Unfiltered\n"
+            + "define function Twice(x Integer): x * 2 + Helper\n"
+            + "define Helper: 1\n"
+            + "define Unused: Message(1, true, '400', 'Error', 'Should not be evaluated')\n"
+            + "define Root: Twice(2)");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+        EvaluationResult result = engine.evaluatePruned(new VersionedIdentifier().withId("Test"), Collections.singleton("Root"), null, null);
+
+        assertThat(result.forExpression("Root"), is(5));
+        assertEquals(result.expressionResults.size(), 1);
+        assertThat(result.getSkippedExpressions(), is(Collections.singleton("Unused")));
+        assertTrue(result.getSkippedRetrieves().isEmpty());
+
+        // The analysis is remembered for the library and root set
+        DemandAnalysis analysis = DemandAnalysis.of(library, new HashSet<>(Collections.singleton("Root")));
+        assertTrue(analysis == DemandAnalysis.of(library, Collections.singleton("Root")));
+        assertFalse(analysis == DemandAnalysis.of(library, new HashSet<>(Arrays.asList("Root", "Helper"))));
+    }
+
+    @Test
+    public void test_functionMemo_remembersPureCalls() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "context Unfiltered\n"
+            + "define function Twice(x Integer): x * 2\n"
+            + "define function Stamped(x Integer): Tuple { value: x, at: Now() }\n"
+            + "define A: Twice(2) + Twice(2) + Twice(3)\n"
+            + "define B: Stamped(1)");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)),
+            EnumSet.of(CqlEngine.Options.EnableExpressionCaching, CqlEngine.Options.EnableFunctionMemoization));
+        EvaluationResult result = engine.evaluate("Test");
+
+        assertThat(result.forExpression("A"), is(14));
+        assertEquals(result.getFunctionMemoStatistics().getHitCount(), 1);
+        // Stamped reads the clock, so it is not remembered
+        assertEquals(result.getFunctionMemoStatistics().getMissCount(), 2);
+
+        result = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library))).evaluate("Test");
+        assertThat(result.forExpression("A"), is(14));
+        assertEquals(result.getFunctionMemoStatistics(), null);
+    }
+
+    @Test
+    public void test_profiling_countsDefinitionsAndNodes() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "context Unfiltered\n"
+            + "define function Twice(x Integer): x * 2\n"
+            + "define A: Twice(2) + Twice(3)\n"
+            + "define B: A + Twice(4)");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)),
+            EnumSet.of(CqlEngine.Options.EnableExpressionCaching, CqlEngine.Options.EnableProfiling));
+        EvaluationResult result = engine.evaluate("Test");
+
+        assertThat(result.forExpression("B"), is(18));
+        Profile profile = result.getProfile();
+        assertEquals(profile.getDefinitions().get("Test.Twice()").getCount(), 3);
+        // B references A, which is evaluated once and cached after that
+        assertEquals(profile.getDefinitions().get("Test.A").getCount(), 2);
+        assertEquals(profile.getDefinitions().get("Test.B").getCount(), 1);
+        assertThat(profile.getStacks().containsKey("Test.B;Test.Twice()"), is(true));
+        assertThat(profile.getStacks().containsKey("Test.A;Test.Twice()"), is(true));
+        assertThat(profile.getStacks().containsKey("Test.B;Test.A;Test.Twice()"), is(false));
+
+        Profile.Entry entry = profile.getDefinitions().get("Test.B");
+        assertThat(entry.getInclusiveNanos() >= entry.getExclusiveNanos(), is(true));
+        assertThat(profile.getNodes().keySet().stream().anyMatch(key -> key.startsWith("Test") && key.endsWith(" Multiply")), is(true));
+
+        Profile merged = new Profile().merge(profile).merge(engine.evaluate("Test").getProfile());
+        assertEquals(merged.getDefinitions().get("Test.Twice()").getCount(), 6);
+
+        result = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library))).evaluate("Test");
+        assertEquals(result.getProfile(), null);
+    }
+
+    @Test
+    public void test_debugCoverage_recordsEvaluatedNodes() throws IOException, JAXBException {
+        CqlTranslator translator = CqlTranslator.fromText("library Test version '1.0.0'\n"
+            + "context Unfiltered\n"
+            + "define X: if true then 1 + 2 else 3 * 4",
+            new ModelManager(), new LibraryManager(new ModelManager()), CqlTranslator.Options.EnableLocators);
+        Library library = this.readXml(translator.toXml());
+        VersionedIdentifier identifier = new VersionedIdentifier().withId("Test").withVersion("1.0.0");
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+
+        DebugMap debugMap = new DebugMap();
+        debugMap.setIsCoverageEnabled(true);
+        EvaluationResult result = engine.evaluate(identifier, null, null, null, debugMap);
+
+        assertThat(result.forExpression("X"), is(3));
+        DebugLibraryResultEntry entry = result.getDebugResult().getLibraryResults().get("Test");
+        // Coverage is recorded in a bitmap rather than as results
+        assertThat(entry.getResults().isEmpty(), is(true));
+        Set<DebugLocator> covered = entry.getCoveredLocators();
+        assertThat(covered.contains(new DebugLocator(Location.fromLocator("3:24-3:28"))), is(true));
+        assertThat(covered.contains(new DebugLocator(Location.fromLocator("3:35-3:39"))), is(false));
+
+        // An explicit entry still logs results, and changing the map recompiles its actions
+        debugMap.addDebugEntry(new DebugLocator(DebugLocator.DebugLocatorType.NODE_TYPE, "Add"), DebugAction.WATCH);
+        result = engine.evaluate(identifier, null, null, null, debugMap);
+        entry = result.getDebugResult().getLibraryResults().get("Test");
+        assertThat(entry.getResults().containsKey(new DebugLocator(Location.fromLocator("3:24-3:28"))), is(true));
+        assertThat(entry.getCoveredLocators().contains(new DebugLocator(Location.fromLocator("3:24-3:28"))), is(false));
+    }
+
+    @Test
+    public void test_flightRecorderEvents_enabledOnlyWhileRecording() throws Exception {
+        assertEquals(FlightRecorderEvent.EXPRESSION_DEF.begin(), null);
+
+        Class<?> recordingClass;
+        try {
+            recordingClass = Class.forName("jdk.jfr.Recording");
+        }
+        catch (ClassNotFoundException e) {
+            throw new SkipException("Flight Recorder is not available on this JVM");
+        }
+
+        // The tests are compiled for Java 8, which has no jdk.jfr API
+        Object recording = recordingClass.getConstructor().newInstance();
+        recordingClass.getMethod("enable", String.class).invoke(recording, FlightRecorderEvent.EXPRESSION_DEF.getName());
+        recordingClass.getMethod("start").invoke(recording);
+        try {
+            assertTrue(FlightRecorderEvent.EXPRESSION_DEF.isEnabled());
+            assertFalse(FlightRecorderEvent.RETRIEVE.isEnabled());
+
+            Library library = this.toLibrary("library Test version '1.0.0'\ndefine X: 5 + 5");
+            EvaluationResult result = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library))).evaluate("Test");
+            assertThat(result.forExpression("X"), is(10));
+        }
+        finally {
+            recordingClass.getMethod("close").invoke(recording);
+        }
+
+        assertFalse(FlightRecorderEvent.EXPRESSION_DEF.isEnabled());
+    }
+
+    @Test
+    public void test_streamingQueries_stopAtFirstNeededRow() throws IOException, JAXBException {
+        // Evaluating the where clause for the last row fails, so only consumers that stop early succeed
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "context Unfiltered\n"
+            + "define Rows: ({ 1, 2, 0 }) R where Message(R > 0, R = 0, 'E', 'Error', 'Evaluated the last row')\n"
+            + "define ExistsRow: exists (Rows)\n"
+            + "define AnyRow: exists (({ 1, 2, 0 }) R where Message(R > 0, R = 0, 'E', 'Error', 'Evaluated the last row'))\n"
+            + "define FirstRow: First(({ 1, 2, 0 }) R where Message(R > 0, R = 0, 'E', 'Error', 'Evaluated the last row'))\n"
+            + "define SortedFirstRow: First(({ 1, 2, 0 }) R where Message(R > 0, R = 0, 'E', 'Error', 'Evaluated the last row') sort desc)\n"
+            + "define CountRows: Count(({ 1, 2, 3 }) R where R > 1 return R + 1)\n"
+            + "define NoRow: singleton from (({ 1, 2, 3 }) R where R > 3)");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+        EvaluationResult result = engine.evaluate("Test", new HashSet<>(Arrays.asList("AnyRow", "FirstRow", "CountRows", "NoRow")));
+        assertThat(result.forExpression("AnyRow"), is(true));
+        assertThat(result.forExpression("FirstRow"), is(1));
+        assertThat(result.forExpression("CountRows"), is(2));
+        assertEquals(result.forExpression("NoRow"), null);
+
+        // A reference to a definition, or a sorted query, still evaluates every row
+        for (String expression : Arrays.asList("ExistsRow", "SortedFirstRow")) {
+            try {
+                engine.evaluate("Test", Collections.singleton(expression));
+                throw new AssertionError(expression + " should have evaluated every row");
+            }
+            catch (CqlException e) {
+                assertThat(e.getMessage(), is("E: Evaluated the last row\n"));
+            }
+        }
+    }
+
+    @Test
+    public void test_overloads_resolvedByArgumentType() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "context Unfiltered\n"
+            + "define function Describe(x Integer): 'Integer'\n"
+            + "define function Describe(x String): 'String'\n"
+            + "define function Describe(x Integer, y Integer): 'Pair'\n"
+            + "define X: { Describe(1), Describe('a'), Describe(1, 2) }");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+        for (int i = 0; i < 2; i++) {
+            EvaluationResult result = engine.evaluate("Test");
+            assertThat(result.forExpression("X"), is(Arrays.asList("Integer", "String", "Pair")));
+        }
+    }
+
+    @Test
+    public void test_constantFolding_foldsLiteralExpressions() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\n"
+            + "parameter \"Offset\" Integer default 1\n"
+            + "context Unfiltered\n"
+            + "define Folded: 2 * 3 + ToDecimal(5)\n"
+            + "define Range: Interval[1, 2 + 3]\n"
+            + "define Partial: { 1 + 1, \"Offset\" + 1 }\n"
+            + "define Clock: Now() > DateTime(2000, 1, 1)");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)),
+            EnumSet.of(CqlEngine.Options.EnableExpressionCaching, CqlEngine.Options.EnableConstantFolding));
+        EvaluationResult result = engine.evaluate("Test");
+
+        assertEquals(((java.math.BigDecimal) result.forExpression("Folded")).compareTo(new java.math.BigDecimal(11)), 0);
+        assertTrue(((org.opencds.cqf.cql.engine.runtime.Interval) result.forExpression("Range")).getHigh().equals(5));
+        assertThat(result.forExpression("Partial"), is(Arrays.asList(2, 2)));
+        assertThat(result.forExpression("Clock"), is(true));
+        // Folded, Range, 1 + 1, the literal in "Offset" + 1, the "Offset" default and the three literals of the
+        // DateTime, which itself depends on the evaluation's timezone offset
+        assertEquals(engine.getFoldedExpressionCount(), 8);
+        assertTrue(LibraryIndex.of(library).getExpressionDef("Folded").getExpression() instanceof ConstantEvaluator);
+        assertFalse(LibraryIndex.of(library).getExpressionDef("Clock").getExpression() instanceof ConstantEvaluator);
+    }
+
+    @Test
+    public void test_constantFolding_runsOncePerLibraryAcrossReloads() throws IOException, JAXBException {
+        Library first = this.toLibrary("library First version '1.0.0'\ndefine X: 2 * 3");
+        Library second = this.toLibrary("library Second version '1.0.0'\ndefine Y: 4 * 5");
+
+        // A cache of one library evicts each library when the other is loaded
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Arrays.asList(first, second)), null, null,
+            EnumSet.of(CqlEngine.Options.EnableConstantFolding), new LibraryCache(1));
+
+        assertThat(engine.evaluate("First").forExpression("X"), is(6));
+        assertEquals(engine.getFoldedExpressionCount(), 1);
+        assertThat(engine.evaluate("Second").forExpression("Y"), is(20));
+        assertThat(engine.evaluate("First").forExpression("X"), is(6));
+
+        assertEquals(engine.getLibraryCache().getMissCount(), 3);
+        assertEquals(engine.getLibraryCache().getEvictionCount(), 2);
+        assertEquals(engine.getFoldedExpressionCount(), 2);
+    }
+
+    @Test
+    public void test_libraryCache_reusedAcrossEvaluations() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\ndefine X:\n5+5");
+
+        LibraryLoader libraryLoader = new InMemoryLibraryLoader(Collections.singleton(library));
+
+        CqlEngine engine = new CqlEngine(libraryLoader);
+
+        engine.evaluate("Test");
+        assertEquals(engine.getLibraryCache().getMissCount(), 1);
+        assertEquals(engine.getLibraryCache().size(), 1);
+
+        EvaluationResult result = engine.evaluate("Test");
+        assertThat(result.forExpression("X"), is(10));
+        assertEquals(engine.getLibraryCache().getHitCount(), 1);
+        assertEquals(engine.getLibraryCache().getMissCount(), 1);
+
+        engine.getLibraryCache().invalidate(new VersionedIdentifier().withId("Test"));
+        engine.evaluate("Test");
+        assertEquals(engine.getLibraryCache().getMissCount(), 2);
+    }
+
+    @Test
+    public void test_libraryCache_invalidatesIncludingLibraries() throws IOException, JAXBException {
+        Map<org.hl7.elm.r1.VersionedIdentifier, String> libraries = new HashMap<>();
+        libraries.put(this.toElmIdentifier("Common", "1.0.0"), "library Common version '1.0.0'\ndefine Z: 1");
+        libraries.put(this.toElmIdentifier("Test", "1.0.0"),
+            "library Test version '1.0.0'\ninclude Common version '1.0.0' named \"Common\"\ndefine Y: \"Common\".Z");
+        LibraryLoader firstLoader = new InMemoryLibraryLoader(this.translate(libraries));
+
+        libraries.put(this.toElmIdentifier("Common", "1.0.0"), "library Common version '1.0.0'\ndefine Z: 2");
+        LibraryLoader secondLoader = new InMemoryLibraryLoader(this.translate(libraries));
+
+        LibraryLoader[] currentLoader = { firstLoader };
+        CqlEngine engine = new CqlEngine(libraryIdentifier -> currentLoader[0].load(libraryIdentifier));
+
+        assertThat(engine.evaluate("Test").forExpression("Y"), is(1));
+        assertEquals(engine.getLibraryCache().size(), 2);
+
+        currentLoader[0] = secondLoader;
+        engine.getLibraryCache().invalidate(new VersionedIdentifier().withId("Common").withVersion("1.0.0"));
+        assertEquals(engine.getLibraryCache().size(), 0);
+
+        assertThat(engine.evaluate("Common").forExpression("Z"), is(2));
+        assertThat(engine.evaluate("Test").forExpression("Y"), is(2));
+    }
+
+    @Test
+    public void test_libraryCache_evictsLeastRecentlyUsed() {
+        LibraryCache cache = new LibraryCache(2);
+        VersionedIdentifier a = new VersionedIdentifier().withId("A");
+        VersionedIdentifier b = new VersionedIdentifier().withId("B");
+        VersionedIdentifier c = new VersionedIdentifier().withId("C");
+
+        cache.put(a, new Library().withIdentifier(a));
+        cache.put(b, new Library().withIdentifier(b));
+        assertNotNull(cache.get(a));
+        cache.put(c, new Library().withIdentifier(c));
+
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.getEvictionCount(), 1);
+        assertTrue(cache.contains(a));
+        assertFalse(cache.contains(b));
+        assertTrue(cache.contains(c));
+    }
+
+    @Test
+    public void test_expressionCache_evictsUnpinnedDefinitions() {
+        VersionedIdentifier libraryId = new VersionedIdentifier().withId("Test");
+        ExpressionCache cache = ExpressionCache.leastRecentlyUsed(2).pin(libraryId, "A");
+
+        cache.put(libraryId, "A", 1);
+        cache.put(libraryId, "B", 2);
+        cache.put(libraryId, "C", 3);
+
+        assertTrue(cache.contains(libraryId, "A"));
+        assertFalse(cache.contains(libraryId, "B"));
+        assertTrue(cache.contains(libraryId, "C"));
+        assertEquals(cache.getStatistics().getEvictionCount(), 1);
+
+        ExpressionCache weighted = ExpressionCache.weighted(5);
+        weighted.put(libraryId, "List", Arrays.asList(1, 2, 3));
+        weighted.put(libraryId, "Other", Arrays.asList(1, 2));
+        assertFalse(weighted.contains(libraryId, "List"));
+        assertTrue(weighted.contains(libraryId, "Other"));
+    }
+
+    @Test
+    public void test_expressionCache_statisticsReported() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\ndefine X:\n5+5\ndefine Y: X + X");
+
+        CqlEngine engine = new CqlEngine(new InMemoryLibraryLoader(Collections.singleton(library)));
+        engine.setExpressionCacheFactory(() -> ExpressionCache.leastRecentlyUsed(10));
+
+        EvaluationResult result = engine.evaluate("Test");
+        assertThat(result.forExpression("Y"), is(20));
+        assertEquals(result.getExpressionCacheStatistics().getMissCount(), 2);
+        assertEquals(result.getExpressionCacheStatistics().getHitCount(), 2);
+    }
+
+    @Test
+    public void test_pooledContext_resetBetweenEvaluations() throws IOException, JAXBException {
+        Library library = this.toLibrary("library Test version '1.0.0'\nparameter IntValue Integer\ndefine X:\nIntValue + 5");
+
+        LibraryLoader libraryLoader = new InMemoryLibraryLoader(Collections.singleton(library));
+
+        CqlEngine engine = new CqlEngine(libraryLoader);
+
+        Map<String,Object> parameters = new HashMap<>();
+        parameters.put("IntValue", 10);
+        EvaluationResult result = engine.evaluate("Test", parameters);
+        assertThat(result.forExpression("X"), is(15));
+
+        // The second evaluation reuses the pooled context, so neither the parameter nor the cached result may leak
+        parameters.put("IntValue", 20);
+        result = engine.evaluate("Test", parameters);
+        assertThat(result.forExpression("X"), is(25));
+
+        result = engine.evaluate("Test");
+        assertEquals(result.forExpression("X"), null);
+    }
 }
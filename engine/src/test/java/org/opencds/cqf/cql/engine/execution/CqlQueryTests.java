@@ -1,9 +1,14 @@
 package org.opencds.cqf.cql.engine.execution;
 
+import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import org.opencds.cqf.cql.engine.debug.Profile;
+import org.opencds.cqf.cql.engine.debug.Profiler;
 import org.opencds.cqf.cql.engine.elm.execution.EquivalentEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.QueryEvaluator;
 import org.opencds.cqf.cql.engine.runtime.Tuple;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -65,4 +70,111 @@ public class CqlQueryTests extends CqlExecutionTestBase
         Object result = context.resolveExpressionRef("ClaimWithQualifiyingPOSWithoutEncounter").getExpression().evaluate(context);
         Assert.assertTrue(result == null);
     }
+
+    @Test
+    public void TestJoins()
+    {
+        Context context = new Context(library);
+
+        Object result = context.resolveExpressionRef("Joined").getExpression().evaluate(context);
+        Assert.assertEquals(result, Arrays.asList("bx", "bz", "dx", "dz"));
+        Assert.assertEquals(describePlan(context, "Joined"), "source E\nsource C: hash join");
+
+        result = context.resolveExpressionRef("Joined Decimals").getExpression().evaluate(context);
+        List<?> results = (List<?>) result;
+        Assert.assertEquals(results.size(), 2);
+        Assert.assertEquals(((BigDecimal) results.get(0)).compareTo(new BigDecimal("2")), 0);
+        Assert.assertEquals(((BigDecimal) results.get(1)).compareTo(new BigDecimal("5")), 0);
+        Assert.assertEquals(describePlan(context, "Joined Decimals"), "source X\nsource Y: hash join");
+
+        result = context.resolveExpressionRef("Joined Dates").getExpression().evaluate(context);
+        Assert.assertEquals(((List<?>) result).size(), 1);
+
+        result = context.resolveExpressionRef("Three Way Join").getExpression().evaluate(context);
+        Assert.assertEquals(result, Arrays.asList("1a", "2b", "2b"));
+        Assert.assertEquals(describePlan(context, "Three Way Join"), "source X\nsource Y: hash join\nsource Z: hash join");
+    }
+
+    @Test
+    public void TestSourceFilters()
+    {
+        Context context = new Context(library);
+
+        Object result = context.resolveExpressionRef("Filtered Sources").getExpression().evaluate(context);
+        Assert.assertEquals(result, Arrays.asList(22, 32));
+        Assert.assertEquals(describePlan(context, "Filtered Sources"),
+            "source A: filtered by 1 conjunct\nsource B: filtered by 1 conjunct");
+
+        result = context.resolveExpressionRef("Filtered Join").getExpression().evaluate(context);
+        Assert.assertEquals(result, Arrays.asList("2y2", "3y3"));
+        Assert.assertEquals(describePlan(context, "Filtered Join"),
+            "source A: filtered by 1 conjunct\nsource B: filtered by 1 conjunct\nsource C: filtered by 1 conjunct, hash join");
+
+        result = context.resolveExpressionRef("Nothing Left").getExpression().evaluate(context);
+        Assert.assertEquals(result, Collections.emptyList());
+    }
+
+    @Test
+    public void TestRelationships()
+    {
+        Context context = new Context(library);
+        context.setProfiler(new Profiler());
+
+        Object result = context.resolveExpressionRef("With Related").getExpression().evaluate(context);
+        Assert.assertEquals(result, Arrays.asList(2, 3));
+        Assert.assertEquals(describePlan(context, "With Related"), "source R\nwith X: evaluated once, hash index");
+
+        result = context.resolveExpressionRef("Without Related").getExpression().evaluate(context);
+        Assert.assertEquals(result, Arrays.asList(1, 4, null));
+        Assert.assertEquals(describePlan(context, "Without Related"), "source R\nwithout X: evaluated once, hash index");
+
+        result = context.resolveExpressionRef("With Row Dependent Source").getExpression().evaluate(context);
+        Assert.assertEquals(result, Arrays.asList(1, 2));
+        Assert.assertEquals(describePlan(context, "With Row Dependent Source"), "source R\nwith X: evaluated per row");
+
+        // Once per query for the invariant source, once per row for the other
+        Profile profile = context.getProfiler().getProfile();
+        Assert.assertEquals(profile.getDefinitions().get("CqlQueryTests.Related()").getCount(), 2);
+        Assert.assertEquals(profile.getDefinitions().get("CqlQueryTests.PerRow()").getCount(), 2);
+    }
+
+    @Test
+    public void TestTemporalRelationships()
+    {
+        Context context = new Context(library);
+
+        Object result = context.resolveExpressionRef("During Period").getExpression().evaluate(context);
+        Assert.assertEquals(result, Arrays.asList("2020-01-15", "2020-03-31", "2020-07-01"));
+        Assert.assertEquals(describePlan(context, "During Period"), "source D\nwith P: evaluated once, interval index");
+
+        result = context.resolveExpressionRef("In Range").getExpression().evaluate(context);
+        Assert.assertEquals(result, Arrays.asList(1, 5));
+        Assert.assertEquals(describePlan(context, "In Range"), "source N\nwith I: evaluated once, interval index");
+
+        result = context.resolveExpressionRef("Not Overlapping").getExpression().evaluate(context);
+        Assert.assertEquals(((List<?>) result).size(), 1);
+        Assert.assertEquals(describePlan(context, "Not Overlapping"), "source A\nwithout B: evaluated once, interval index");
+
+        result = context.resolveExpressionRef("Same Day").getExpression().evaluate(context);
+        Assert.assertEquals(((List<?>) result).size(), 1);
+        Assert.assertEquals(describePlan(context, "Same Day"), "source T\nwith V: evaluated once, interval index");
+    }
+
+    @Test
+    public void TestListRelationshipsWithNullKeys()
+    {
+        Context context = new Context(library);
+
+        for (String expression : Arrays.asList("Included Lists", "Including Lists", "Properly Included Lists")) {
+            Object result = context.resolveExpressionRef(expression).getExpression().evaluate(context);
+            Object expected = context.resolveExpressionRef(expression + " Unindexed").getExpression().evaluate(context);
+            Assert.assertEquals(result, expected);
+            Assert.assertTrue(describePlan(context, expression).endsWith("evaluated once, interval index"));
+        }
+    }
+
+    private static String describePlan(Context context, String expression)
+    {
+        return ((QueryEvaluator) context.resolveExpressionRef(expression).getExpression()).describePlan();
+    }
 }
@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TimeZone;
 
 import javax.xml.bind.JAXBException;
@@ -28,6 +29,7 @@ import org.cqframework.cql.elm.tracking.TrackBack;
 import org.fhir.ucum.UcumEssenceService;
 import org.fhir.ucum.UcumException;
 import org.fhir.ucum.UcumService;
+import org.opencds.cqf.cql.engine.elm.execution.ExpressionCompiler;
 import org.opencds.cqf.cql.engine.runtime.Code;
 import org.opencds.cqf.cql.engine.runtime.Concept;
 import org.opencds.cqf.cql.engine.runtime.CqlList;
@@ -62,6 +64,27 @@ public class CqlTestSuite {
         }
     }
 
+    // Compiled definitions must give the same results as the interpreter
+    @Test
+    public void testMainSuiteCompiled() throws IOException, JAXBException, UcumException {
+        Library library = translate("portable/CqlTestSuite.cql");
+        Map<String, Object> interpreted = evaluateTests(library);
+
+        Assert.assertTrue(ExpressionCompiler.compile(library) > 0);
+        Assert.assertEquals(evaluateTests(library), interpreted);
+    }
+
+    private Map<String, Object> evaluateTests(Library library) {
+        Context context = new Context(library, ZonedDateTime.of(2018, 1, 1, 7, 0, 0, 0, TimeZone.getDefault().toZoneId()));
+        Map<String, Object> results = new LinkedHashMap<>();
+        for (ExpressionDef expression : library.getStatements().getDef()) {
+            if (!(expression instanceof FunctionDef) && expression.getName().startsWith("test")) {
+                results.put(expression.getName(), expression.evaluate(context));
+            }
+        }
+        return results;
+    }
+
     // This test is for the runtime errors
     @Test
     public void testErrorSuite() throws IOException, JAXBException, UcumException {
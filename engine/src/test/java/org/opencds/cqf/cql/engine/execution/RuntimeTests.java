@@ -5,8 +5,13 @@ import static org.hamcrest.Matchers.is;
 
 import java.math.BigDecimal;
 
+import org.cqframework.cql.elm.execution.Expression;
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.VersionedIdentifier;
 import org.opencds.cqf.cql.engine.debug.Location;
 import org.opencds.cqf.cql.engine.debug.SourceLocator;
+import org.opencds.cqf.cql.engine.elm.execution.AddEvaluator;
+import org.opencds.cqf.cql.engine.elm.execution.LessEvaluator;
 import org.opencds.cqf.cql.engine.exception.InvalidInterval;
 import org.opencds.cqf.cql.engine.runtime.Interval;
 import org.opencds.cqf.cql.engine.runtime.Quantity;
@@ -71,4 +76,44 @@ public class RuntimeTests {
 
         assertThat(sourceLocator.toString(), is("?.?(?)"));
     }
+
+    // An operand whose value a test can change between evaluations
+    private static class Operand extends Expression {
+        private Object value;
+
+        @Override
+        protected Object internalEvaluate(Context context) {
+            return value;
+        }
+    }
+
+    @Test
+    public void testSpecializedOperatorsFallBackOnOtherTypes() {
+        Context context = new Context(new Library().withIdentifier(new VersionedIdentifier().withId("Test")));
+        Operand left = new Operand();
+        Operand right = new Operand();
+        Expression less = new LessEvaluator().withOperand(left, right);
+        Expression add = new AddEvaluator().withOperand(left, right);
+
+        left.value = 1;
+        right.value = 2;
+        assertThat(less.evaluate(context), is(true));
+        assertThat(add.evaluate(context), is(3));
+        assertThat(less.evaluate(context), is(true));
+        assertThat(add.evaluate(context), is(3));
+
+        right.value = null;
+        assertThat(less.evaluate(context), is((Object) null));
+        assertThat(add.evaluate(context), is((Object) null));
+
+        left.value = new BigDecimal("2.5");
+        right.value = new BigDecimal("1.5");
+        assertThat(less.evaluate(context), is(false));
+        assertThat(add.evaluate(context), is(new BigDecimal("4.0")));
+
+        left.value = new Quantity().withValue(new BigDecimal("1.0")).withUnit("g");
+        right.value = new Quantity().withValue(new BigDecimal("2.0")).withUnit("g");
+        assertThat(less.evaluate(context), is(true));
+        assertThat(((Quantity) add.evaluate(context)).getValue(), is(new BigDecimal("3.0")));
+    }
 }